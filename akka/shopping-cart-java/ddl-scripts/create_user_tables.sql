@@ -3,3 +3,20 @@ CREATE TABLE IF NOT EXISTS public.item_popularity (
     version BIGINT NOT NULL,
     count BIGINT NOT NULL,
     PRIMARY KEY (itemid));
+
+CREATE TABLE IF NOT EXISTS public.cart_view (
+    cartid VARCHAR(255) NOT NULL,
+    version BIGINT NOT NULL,
+    seqnr BIGINT NOT NULL,
+    state BYTEA NOT NULL,
+    PRIMARY KEY (cartid));
+
+-- the offsets of the transactional mode of PublishEventsProjection. Before enabling that mode
+-- for the first time, it can continue from the offsets of the at-least-once modes with:
+-- INSERT INTO public.publish_events_offset (tag, event_offset)
+--   SELECT projection_key, CAST(current_offset AS BIGINT) FROM public.akka_projection_offset_store
+--   WHERE projection_name = 'PublishEventsProjection' AND manifest = 'SEQ'
+CREATE TABLE IF NOT EXISTS public.publish_events_offset (
+    tag VARCHAR(255) NOT NULL,
+    event_offset BIGINT NOT NULL,
+    PRIMARY KEY (tag));
@@ -0,0 +1,180 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.Behaviors;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency percentiles of the blocking part of {@code getItemPopularity} on the
+ * {@code akka.projection.jdbc.blocking-jdbc-dispatcher}, with the thread pool executor and with the
+ * {@link VirtualThreadExecutorConfigurator}, while projection instances run their transactions on
+ * the same dispatcher. The queries go through the PostgreSQL JDBC driver and a connection pool of
+ * the same size as the dispatcher, so the results include the locking of the driver, which pinned
+ * the virtual threads to their carrier threads before pgjdbc 42.6.
+ *
+ * <p>Needs the local database of local-shared.conf, with the tables of
+ * ddl-scripts/create_user_tables.sql. The virtual threads need Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class BlockingJdbcBenchmark {
+
+  private static final int POOL_SIZE = 10;
+
+  private static final String UPSERT =
+      "INSERT INTO item_popularity (itemid, version, count) VALUES (?, 0, ?) "
+          + "ON CONFLICT (itemid) DO UPDATE SET "
+          + "count = item_popularity.count + EXCLUDED.count, "
+          + "version = item_popularity.version + 1";
+
+  private static final String FIND_BY_ID =
+      "SELECT itemid, version, count FROM item_popularity WHERE itemid = ?";
+
+  @Param({"thread-pool-executor", "shopping.cart.VirtualThreadExecutorConfigurator"})
+  public String executor;
+
+  // projection instances that each run one transaction after the other
+  @Param({"0", "10"})
+  public int projectionLoad;
+
+  private ActorSystem<Void> system;
+  private Executor blockingJdbcExecutor;
+  private HikariDataSource dataSource;
+  private final List<Thread> projections = new ArrayList<>();
+  private volatile boolean running;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    system =
+        ActorSystem.create(
+            Behaviors.empty(),
+            "BlockingJdbcBenchmark",
+            ConfigFactory.parseString(
+                    "akka.actor.provider = local\n"
+                        + "akka.projection.jdbc.blocking-jdbc-dispatcher {\n"
+                        + "  executor = \""
+                        + executor
+                        + "\"\n"
+                        + "  thread-pool-executor.fixed-pool-size = "
+                        + POOL_SIZE
+                        + "\n"
+                        + "  virtual-thread-executor.max-concurrency = "
+                        + POOL_SIZE
+                        + "\n"
+                        + "}")
+                .withFallback(ConfigFactory.load()));
+    blockingJdbcExecutor =
+        system
+            .dispatchers()
+            .lookup(DispatcherSelector.fromConfig("akka.projection.jdbc.blocking-jdbc-dispatcher"));
+
+    Config jdbcConfig =
+        ConfigFactory.parseResources("local-shared.conf").getConfig("jdbc-connection-settings");
+    dataSource = new HikariDataSource();
+    dataSource.setPoolName("benchmark-connection-pool");
+    dataSource.setMaximumPoolSize(POOL_SIZE);
+    dataSource.setJdbcUrl(jdbcConfig.getString("url"));
+    dataSource.setUsername(jdbcConfig.getString("user"));
+    dataSource.setPassword(jdbcConfig.getString("password"));
+    dataSource.setAutoCommit(false);
+    increment("socks");
+
+    running = true;
+    for (int i = 0; i < projectionLoad; i++) {
+      String itemId = "projection-" + i;
+      Thread projection =
+          new Thread(
+              () -> {
+                while (running) {
+                  CompletableFuture.runAsync(() -> increment(itemId), blockingJdbcExecutor).join();
+                }
+              },
+              itemId);
+      projection.start();
+      projections.add(projection);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    running = false;
+    for (Thread projection : projections) {
+      projection.join();
+    }
+    dataSource.close();
+    system.terminate();
+    system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  public long getItemPopularity() {
+    return CompletableFuture.supplyAsync(() -> findById("socks"), blockingJdbcExecutor)
+        .thenApply(popularity -> popularity.map(ItemPopularity::getCount).orElse(0L))
+        .join();
+  }
+
+  private Optional<ItemPopularity> findById(String itemId) {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement(FIND_BY_ID)) {
+      statement.setString(1, itemId);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        Optional<ItemPopularity> found =
+            resultSet.next()
+                ? Optional.of(
+                    new ItemPopularity(
+                        resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3)))
+                : Optional.empty();
+        connection.commit();
+        return found;
+      }
+    } catch (SQLException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  // the transaction of a projection, like the ItemPopularityProjectionHandler's
+  private void increment(String itemId) {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+      statement.setString(1, itemId);
+      statement.setLong(2, 1L);
+      statement.executeUpdate();
+      connection.commit();
+    } catch (SQLException e) {
+      throw new CompletionException(e);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import com.typesafe.config.ConfigFactory;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shopping.cart.proto.Cart;
+
+/**
+ * Serialization of the events and snapshots of a {@link ShoppingCart}, with the Jackson CBOR
+ * serializer that they were stored with before and with the {@link ShoppingCartSerializer}, and
+ * the conversions to the protobuf messages of the gRPC replies and the Kafka events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  // the id of the jackson-cbor serializer
+  private static final int JACKSON_CBOR_ID = 33;
+  private static final int SHOPPING_CART_ID = 6301;
+
+  @Param({"1", "10", "100"})
+  public int itemsInCart;
+
+  private ActorSystem<Void> system;
+
+  private SerializerWithStringManifest cbor;
+  private SerializerWithStringManifest protobuf;
+
+  private ShoppingCart.Event event;
+  private ShoppingCart.State snapshot;
+  private ShoppingCart.Summary summary;
+
+  private byte[] cborEvent;
+  private byte[] protobufEvent;
+  private byte[] cborSnapshot;
+  private byte[] protobufSnapshot;
+  private String cborEventManifest;
+  private String cborSnapshotManifest;
+  private String protobufEventManifest;
+  private String protobufSnapshotManifest;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    system =
+        ActorSystem.create(
+            Behaviors.empty(),
+            "SerializationBenchmark",
+            ConfigFactory.parseString("akka.actor.provider = local")
+                .withFallback(ConfigFactory.load()));
+    Serialization serialization = SerializationExtension.get(Adapter.toClassic(system));
+
+    ItemQuantities items = ItemQuantities.EMPTY;
+    for (int i = 0; i < itemsInCart; i++) {
+      items = items.updated("item-" + i, i + 1);
+    }
+    event = new ShoppingCart.ItemQuantityAdjusted("cart", "item-0", 1, 2);
+    snapshot = new ShoppingCart.State(items, Optional.of(Instant.now()));
+    summary = snapshot.toSummary();
+
+    cbor =
+        (SerializerWithStringManifest)
+            serialization.serializerByIdentity().get(JACKSON_CBOR_ID).get();
+    // registered whatever serializer the cart is written with
+    protobuf =
+        (SerializerWithStringManifest)
+            serialization.serializerByIdentity().get(SHOPPING_CART_ID).get();
+
+    cborEvent = cbor.toBinary(event);
+    cborEventManifest = cbor.manifest(event);
+    cborSnapshot = cbor.toBinary(snapshot);
+    cborSnapshotManifest = cbor.manifest(snapshot);
+    protobufEvent = protobuf.toBinary(event);
+    protobufEventManifest = protobuf.manifest(event);
+    protobufSnapshot = protobuf.toBinary(snapshot);
+    protobufSnapshotManifest = protobuf.manifest(snapshot);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    system.terminate();
+  }
+
+  @Benchmark
+  public byte[] cborSerializeEvent() {
+    return cbor.toBinary(event);
+  }
+
+  @Benchmark
+  public Object cborDeserializeEvent() throws Exception {
+    return cbor.fromBinary(cborEvent, cborEventManifest);
+  }
+
+  @Benchmark
+  public byte[] cborSerializeSnapshot() {
+    return cbor.toBinary(snapshot);
+  }
+
+  @Benchmark
+  public Object cborDeserializeSnapshot() throws Exception {
+    return cbor.fromBinary(cborSnapshot, cborSnapshotManifest);
+  }
+
+  @Benchmark
+  public byte[] protobufSerializeEvent() {
+    return protobuf.toBinary(event);
+  }
+
+  @Benchmark
+  public Object protobufDeserializeEvent() throws Exception {
+    return protobuf.fromBinary(protobufEvent, protobufEventManifest);
+  }
+
+  @Benchmark
+  public byte[] protobufSerializeSnapshot() {
+    return protobuf.toBinary(snapshot);
+  }
+
+  @Benchmark
+  public Object protobufDeserializeSnapshot() throws Exception {
+    return protobuf.fromBinary(protobufSnapshot, protobufSnapshotManifest);
+  }
+
+  @Benchmark
+  public Cart toProtoCart() {
+    return ShoppingCartServiceImpl.toProtoCart(summary);
+  }
+
+  @Benchmark
+  public byte[] publishEventsSerialize() {
+    return PublishEventsProjectionHandler.serialize(event);
+  }
+}
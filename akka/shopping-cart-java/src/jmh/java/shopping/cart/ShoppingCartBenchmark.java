@@ -0,0 +1,140 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.pattern.StatusReply;
+import akka.persistence.typed.javadsl.CommandHandlerWithReply;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.ReplyEffect;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.typesafe.config.ConfigFactory;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The write path of a {@link ShoppingCart}: the command handler that validates a command into an
+ * effect, the event handler that applies the persisted event, and the reply that is built from the
+ * updated state. The journal is not involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int itemsInCart;
+
+  private ActorSystem<Void> system;
+  private ActorRef<StatusReply<ShoppingCart.Summary>> replyTo;
+  private ActorRef<ShoppingCart.Summary> getReplyTo;
+
+  private CommandHandlerWithReply<ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State>
+      commandHandler;
+  private EventHandler<ShoppingCart.State, ShoppingCart.Event> eventHandler;
+
+  private ItemQuantities items;
+  private ShoppingCart.State cart;
+  private ShoppingCart.ItemAdded itemAdded;
+  private ShoppingCart.ItemQuantityAdjusted itemQuantityAdjusted;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    system =
+        ActorSystem.create(
+            Behaviors.empty(),
+            "ShoppingCartBenchmark",
+            ConfigFactory.parseString("akka.actor.provider = local")
+                .withFallback(ConfigFactory.load()));
+    replyTo = system.deadLetters();
+    getReplyTo = system.deadLetters();
+
+    ShoppingCart shoppingCart =
+        new ShoppingCart(
+            "cart",
+            "carts-0",
+            CinnamonMetrics.get(Adapter.toClassic(system)).createRate("benchmark-events"),
+            new SnapshotPolicy(system),
+            new RecoveryMetrics(system).forShard("0"));
+    commandHandler = shoppingCart.commandHandler();
+    eventHandler = shoppingCart.eventHandler();
+
+    items = ItemQuantities.EMPTY;
+    for (int i = 0; i < itemsInCart; i++) {
+      items = items.updated("item-" + i, i + 1);
+    }
+    cart = new ShoppingCart.State(items, Optional.empty());
+    itemAdded = new ShoppingCart.ItemAdded("cart", "new-item", 1);
+    String lastItemId = "item-" + (itemsInCart - 1);
+    itemQuantityAdjusted =
+        new ShoppingCart.ItemQuantityAdjusted("cart", lastItemId, itemsInCart, itemsInCart + 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    system.terminate();
+  }
+
+  /**
+   * The event handler updates the state in place, so every invocation gets its own state, which is
+   * created outside of the measured time. The per invocation setup adds the cost of reading the
+   * timer to each measurement, which is small next to the event handler with items in the cart.
+   */
+  @State(Scope.Thread)
+  public static class FreshCart {
+    ShoppingCart.State cart;
+
+    @Setup(Level.Invocation)
+    public void setup(ShoppingCartBenchmark benchmark) {
+      cart = new ShoppingCart.State(benchmark.items, Optional.empty());
+    }
+  }
+
+  @Benchmark
+  public ReplyEffect<ShoppingCart.Event, ShoppingCart.State> addItemCommand() {
+    return commandHandler.apply(cart, new ShoppingCart.AddItem("new-item", 1, replyTo));
+  }
+
+  @Benchmark
+  public ReplyEffect<ShoppingCart.Event, ShoppingCart.State> adjustItemQuantityCommand() {
+    return commandHandler.apply(
+        cart, new ShoppingCart.AdjustItemQuantity(itemQuantityAdjusted.itemId, 7, replyTo));
+  }
+
+  @Benchmark
+  public ReplyEffect<ShoppingCart.Event, ShoppingCart.State> getCommand() {
+    return commandHandler.apply(cart, new ShoppingCart.Get(getReplyTo));
+  }
+
+  @Benchmark
+  public ShoppingCart.State itemAddedEvent(FreshCart fresh) {
+    return eventHandler.apply(fresh.cart, itemAdded);
+  }
+
+  @Benchmark
+  public ShoppingCart.State itemQuantityAdjustedEvent(FreshCart fresh) {
+    return eventHandler.apply(fresh.cart, itemQuantityAdjusted);
+  }
+
+  @Benchmark
+  public ShoppingCart.Summary toSummary() {
+    return cart.toSummary();
+  }
+}
@@ -0,0 +1,160 @@
+package shopping.cart;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent calls to a service, with a limit that adapts to how the service
+ * is doing (additive increase, multiplicative decrease).
+ *
+ * <p>Each call that succeeds within {@code latencyThreshold} raises the limit by {@code 1 / limit},
+ * so by about one per limit's worth of calls. Each call that fails or is slower than that lowers it
+ * by {@code backoffRatio}. A service that slows down therefore gets fewer concurrent calls, until
+ * it keeps up again.
+ *
+ * <p>Calls above the limit wait in a queue of at most {@code maxQueued} calls and are started when
+ * other calls complete, so callers see a slower service instead of failures. Only calls that don't
+ * fit in the queue are rejected, with a {@link RejectedExecutionException}.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdNanos;
+  private final double backoffRatio;
+  private final int maxQueued;
+  private final Predicate<Throwable> ignoredFailure;
+
+  private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+  private double limit;
+  private int inFlight;
+  private boolean draining;
+
+  /**
+   * @param ignoredFailure failures that say nothing about the service, such as calls that are
+   *     rejected before they reach it, which neither raise nor lower the limit
+   */
+  public AdaptiveConcurrencyLimiter(
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      Duration latencyThreshold,
+      double backoffRatio,
+      int maxQueued,
+      Predicate<Throwable> ignoredFailure) {
+    if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException(
+          "The limits must be 1 <= min-limit <= initial-limit <= max-limit");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("backoff-ratio must be between 0 and 1");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.backoffRatio = backoffRatio;
+    this.maxQueued = maxQueued;
+    this.ignoredFailure = ignoredFailure;
+  }
+
+  /** Runs the call when the limit allows it. */
+  public <T> CompletionStage<T> submit(Supplier<CompletionStage<T>> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Runnable start = () -> start(call, result);
+    synchronized (this) {
+      if (inFlight < currentLimit()) {
+        inFlight++;
+      } else if (queued.size() < maxQueued) {
+        queued.add(start);
+        return result;
+      } else {
+        result.completeExceptionally(
+            new RejectedExecutionException(
+                "Too many calls waiting for the concurrency limit of " + currentLimit()));
+        return result;
+      }
+    }
+    start.run();
+    return result;
+  }
+
+  private <T> void start(Supplier<CompletionStage<T>> call, CompletableFuture<T> result) {
+    long startedAt = System.nanoTime();
+    CompletionStage<T> stage;
+    try {
+      stage = call.get();
+    } catch (RuntimeException e) {
+      stage = CompletableFuture.failedFuture(e);
+    }
+    stage.whenComplete(
+        (value, exc) -> {
+          completed(System.nanoTime() - startedAt, exc);
+          if (exc == null) result.complete(value);
+          else result.completeExceptionally(exc);
+        });
+  }
+
+  private void completed(long latencyNanos, Throwable exc) {
+    Throwable cause = exc instanceof CompletionException ? exc.getCause() : exc;
+    synchronized (this) {
+      if (cause != null && ignoredFailure.test(cause)) {
+        // the limit stays as it is
+      } else if (cause != null || latencyNanos > latencyThresholdNanos) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+      } else {
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+      inFlight--;
+      // a call that completes while the queue is drained is picked up by the drain loop
+      if (draining) return;
+      draining = true;
+    }
+    drain();
+  }
+
+  /**
+   * Starts the queued calls that fit in the limit, one after the other. Calls that complete right
+   * away complete within {@link #start}, so starting them from {@link #completed} would nest one
+   * stack frame per queued call.
+   */
+  private void drain() {
+    while (true) {
+      Runnable next;
+      synchronized (this) {
+        if (inFlight >= currentLimit() || queued.isEmpty()) {
+          draining = false;
+          return;
+        }
+        next = queued.poll();
+        inFlight++;
+      }
+      next.run();
+    }
+  }
+
+  private int currentLimit() {
+    return (int) limit;
+  }
+
+  /** The number of calls that may run concurrently at the moment. */
+  public synchronized int limit() {
+    return currentLimit();
+  }
+
+  /** The number of calls that are running. */
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /** The number of calls that are waiting for the limit. */
+  public synchronized int queued() {
+    return queued.size();
+  }
+}
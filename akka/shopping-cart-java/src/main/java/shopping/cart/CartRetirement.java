@@ -0,0 +1,347 @@
+package shopping.cart;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
+import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.Sequence;
+import akka.projection.ProjectionId;
+import akka.projection.javadsl.ProjectionManagement;
+import akka.stream.javadsl.Sink;
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+/**
+ * Retires the carts that are checked out, so that the journal doesn't keep their events forever. A
+ * checked out cart is read-only, so its events are only needed until all projections have
+ * processed them.
+ *
+ * <p>One instance runs per tag. It periodically reads the events of its tag with {@code
+ * currentEventsByTag}, up to the lowest offset of the projections in {@code projections}, and
+ * retires the carts of the {@code CheckedOut} events one at a time. The offsets come from {@link
+ * ProjectionManagement}, so those projections must be running, except for the offsets of the
+ * {@code transactional} mode of the {@link PublishEventsTransactionalProjection}, which are read
+ * from its own table.
+ *
+ * <p>A cart is retired by a {@link ShoppingCart#retiring} cart, which persists a {@link
+ * ShoppingCart.CartRetired} event, and whose retention criteria snapshot the cart at that event and
+ * delete the events before it through the journal and snapshot store. The retired cart is
+ * recovered from the snapshot and the last event.
+ *
+ * <p>The events are read from the offset up to which the previous check read them, so each event
+ * is only looked at once while the instance runs. A cart that fails to be retired is skipped, and
+ * tried again when the instance is restarted, for example on another node.
+ */
+public final class CartRetirement {
+
+  private static final Logger logger = LoggerFactory.getLogger(CartRetirement.class);
+
+  interface Command {}
+
+  private enum Tick implements Command {
+    INSTANCE
+  }
+
+  /** Stops the retirement of a tag, when it's moved to another node or the node is shut down. */
+  public enum Stop implements Command {
+    INSTANCE
+  }
+
+  private static final class CartsFound implements Command {
+    final RetirableCarts found;
+    final Throwable failure;
+
+    CartsFound(RetirableCarts found, Throwable failure) {
+      this.found = found;
+      this.failure = failure;
+    }
+  }
+
+  private static final class Retired implements Command {
+    final String cartId;
+    final Throwable failure;
+
+    Retired(String cartId, Throwable failure) {
+      this.cartId = cartId;
+      this.failure = failure;
+    }
+  }
+
+  /** A cart with a {@code CheckedOut} event that all projections have processed. */
+  static final class CheckedOutCart {
+    final String cartId;
+    // the offset of the CheckedOut event
+    final long offset;
+
+    CheckedOutCart(String cartId, long offset) {
+      this.cartId = cartId;
+      this.offset = offset;
+    }
+  }
+
+  /** The carts that a lookup found, and the offset up to which it read the events. */
+  static final class RetirableCarts {
+    final List<CheckedOutCart> carts;
+    final long readUpTo;
+
+    RetirableCarts(List<CheckedOutCart> carts, long readUpTo) {
+      this.carts = carts;
+      this.readUpTo = readUpTo;
+    }
+  }
+
+  /** The events that the retirement reads. */
+  interface Journal {
+    /**
+     * The next carts of the tag to retire, in the order of their events after the given offset,
+     * together with the offset that the next lookup continues after.
+     */
+    CompletionStage<RetirableCarts> findRetirableCarts(String tag, long afterOffset, int limit);
+  }
+
+  private CartRetirement() {}
+
+  public static void init(
+      ActorSystem<?> system, JpaTransactionManager transactionManager, ProjectionTags tags) {
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.cart-retirement");
+    if (!settings.getBoolean("enabled")) {
+      return;
+    }
+
+    Journal journal =
+        new QueryJournal(system, transactionManager, settings.getStringList("projections"));
+    // not shared with the carts of Cluster Sharding, which are created by ShoppingCart.init
+    SnapshotPolicy snapshotPolicy = new SnapshotPolicy(system);
+    RecoveryMetrics recoveryMetrics = new RecoveryMetrics(system);
+    ShardedDaemonProcess.get(system)
+        .init(
+            Command.class,
+            "CartRetirement",
+            tags.size(),
+            index -> {
+              String tag = tags.tag(index);
+              return create(
+                  journal,
+                  cartId -> ShoppingCart.retiring(cartId, tag, snapshotPolicy, recoveryMetrics),
+                  settings,
+                  tag);
+            },
+            ShardedDaemonProcessSettings.create(system),
+            Optional.of(Stop.INSTANCE));
+  }
+
+  // package-private for the tests
+  static Behavior<Command> create(
+      Journal journal,
+      Function<String, Behavior<ShoppingCart.Command>> retiringCarts,
+      Config settings,
+      String tag) {
+    return Behaviors.setup(
+        context ->
+            Behaviors.withTimers(
+                timers -> {
+                  timers.startTimerWithFixedDelay(
+                      Tick.INSTANCE, settings.getDuration("check-interval"));
+                  return new Worker(context, journal, retiringCarts, settings, tag).idle();
+                }));
+  }
+
+  private static final class Worker {
+    private final ActorContext<Command> context;
+    private final Journal journal;
+    private final Function<String, Behavior<ShoppingCart.Command>> retiringCarts;
+    private final String tag;
+    private final int batchSize;
+    private final Duration retireTimeout;
+
+    // the offset up to which the events were read
+    private long cursor;
+
+    Worker(
+        ActorContext<Command> context,
+        Journal journal,
+        Function<String, Behavior<ShoppingCart.Command>> retiringCarts,
+        Config settings,
+        String tag) {
+      this.context = context;
+      this.journal = journal;
+      this.retiringCarts = retiringCarts;
+      this.tag = tag;
+      this.batchSize = settings.getInt("batch-size");
+      this.retireTimeout = settings.getDuration("retire-timeout");
+    }
+
+    private Behavior<Command> idle() {
+      return Behaviors.receive(Command.class)
+          .onMessageEquals(Tick.INSTANCE, this::findRetirableCarts)
+          .onMessageEquals(Stop.INSTANCE, Behaviors::stopped)
+          .build();
+    }
+
+    private Behavior<Command> findRetirableCarts() {
+      context.pipeToSelf(journal.findRetirableCarts(tag, cursor, batchSize), CartsFound::new);
+      return Behaviors.receive(Command.class)
+          .onMessage(
+              CartsFound.class,
+              result -> {
+                if (result.failure != null) {
+                  logger.warn("Failed to find the carts to retire of {}", tag, result.failure);
+                  return idle();
+                }
+                cursor = result.found.readUpTo;
+                return retireNext(new ArrayDeque<>(result.found.carts), 0);
+              })
+          // still busy with the previous check
+          .onMessageEquals(Tick.INSTANCE, Behaviors::same)
+          .onMessageEquals(Stop.INSTANCE, Behaviors::stopped)
+          .build();
+    }
+
+    private Behavior<Command> retireNext(ArrayDeque<CheckedOutCart> found, int retired) {
+      CheckedOutCart next = found.poll();
+      if (next == null) {
+        if (retired > 0) {
+          logger.info("Retired {} carts of {}", retired, tag);
+        }
+        return idle();
+      }
+      String cartId = next.cartId;
+      ActorRef<ShoppingCart.Command> cart = context.spawnAnonymous(retiringCarts.apply(cartId));
+      context.askWithStatus(
+          Done.class,
+          cart,
+          retireTimeout,
+          ShoppingCart.Retire::new,
+          (done, exc) -> new Retired(cartId, exc));
+      return Behaviors.receive(Command.class)
+          .onMessage(
+              Retired.class,
+              reply -> {
+                // also stopped when it didn't reply in time
+                context.stop(cart);
+                if (reply.failure != null) {
+                  logger.warn("Failed to retire cart {}, skipped", reply.cartId, reply.failure);
+                  return retireNext(found, retired);
+                }
+                return retireNext(found, retired + 1);
+              })
+          .onMessageEquals(Tick.INSTANCE, Behaviors::same)
+          .onMessageEquals(Stop.INSTANCE, Behaviors::stopped)
+          .build();
+    }
+  }
+
+  private static final class QueryJournal implements Journal {
+    private final ActorSystem<?> system;
+    private final JdbcReadJournal readJournal;
+    private final List<String> projections;
+    private final ProjectionManagement projectionManagement;
+    // the offsets of the transactional mode of publishing, when it's enabled
+    private final Optional<PublishEventsTransactionalProjection.ProjectionOffsets> publishedOffsets;
+    private final Executor blocking;
+
+    QueryJournal(
+        ActorSystem<?> system, JpaTransactionManager transactionManager, List<String> projections) {
+      if (projections.isEmpty()) {
+        throw new IllegalArgumentException("The cart-retirement projections must not be empty");
+      }
+      this.system = system;
+      this.readJournal =
+          PersistenceQuery.get(system)
+              .getReadJournalFor(JdbcReadJournal.class, JdbcReadJournal.Identifier());
+      this.projections = projections;
+      this.projectionManagement = ProjectionManagement.get(system);
+      String publishMode =
+          system
+              .settings()
+              .config()
+              .getString("shopping-cart-service.projections.publish-events.mode");
+      this.publishedOffsets =
+          publishMode.equals("transactional")
+              ? Optional.of(
+                  PublishEventsTransactionalProjection.projectionOffsets(transactionManager))
+              : Optional.empty();
+      this.blocking = system.dispatchers().lookup(DispatcherSelector.blocking());
+    }
+
+    @Override
+    public CompletionStage<RetirableCarts> findRetirableCarts(
+        String tag, long afterOffset, int limit) {
+      return processedOffset(tag)
+          .thenCompose(
+              processed -> {
+                long upTo = processed.orElse(afterOffset);
+                if (upTo <= afterOffset) {
+                  return CompletableFuture.completedFuture(
+                      new RetirableCarts(Collections.emptyList(), afterOffset));
+                }
+                return readJournal
+                    .currentEventsByTag(tag, Offset.sequence(afterOffset))
+                    .takeWhile(envelope -> offset(envelope) <= upTo)
+                    .filter(envelope -> envelope.event() instanceof ShoppingCart.CheckedOut)
+                    .map(
+                        envelope ->
+                            new CheckedOutCart(
+                                ((ShoppingCart.CheckedOut) envelope.event()).cartId,
+                                offset(envelope)))
+                    .take(limit)
+                    .runWith(Sink.seq(), system)
+                    .thenApply(
+                        carts ->
+                            new RetirableCarts(
+                                carts,
+                                // all events up to the offset were read when there are fewer
+                                carts.size() < limit ? upTo : carts.get(carts.size() - 1).offset));
+              });
+    }
+
+    // the lowest offset of the projections of the tag, empty when one of them has none yet
+    private CompletionStage<Optional<Long>> processedOffset(String tag) {
+      CompletionStage<Optional<Long>> lowest =
+          CompletableFuture.completedFuture(Optional.of(Long.MAX_VALUE));
+      for (String projection : projections) {
+        lowest =
+            lowest.thenCombine(
+                projectionOffset(ProjectionId.of(projection, tag)),
+                (low, offset) ->
+                    low.flatMap(l -> offset.map(o -> Math.min(l, ((Sequence) o).value()))));
+      }
+      return lowest;
+    }
+
+    private CompletionStage<Optional<Offset>> projectionOffset(ProjectionId projectionId) {
+      if (publishedOffsets.isPresent()
+          && projectionId.name().equals(PublishEventsTransactionalProjection.PROJECTION_NAME)) {
+        // not an Akka Projection, its offsets are in the publish_events_offset table
+        return CompletableFuture.supplyAsync(
+            () -> publishedOffsets.get().read(projectionId.key()), blocking);
+      }
+      return projectionManagement.getOffset(projectionId);
+    }
+
+    private static long offset(EventEnvelope envelope) {
+      return ((Sequence) envelope.offset()).value();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package shopping.cart;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import javax.persistence.*;
+import shopping.cart.proto.CartState;
+
+/**
+ * The state of a cart as it's kept by the {@link CartViewProjection}, so that it can be read
+ * without starting the {@link ShoppingCart} entity.
+ */
+@Entity
+@Table(name = "cart_view")
+public class CartView {
+
+  private static final byte[] EMPTY_STATE = new byte[0];
+
+  // primary key
+  @Id private final String cartId;
+
+  // optimistic locking
+  @Version private final Long version;
+
+  // the sequence number of the last event of the cart that is applied to the view
+  private final long seqNr;
+
+  // the ShoppingCart.State, as the CartState message of ShoppingCartState.proto
+  private final byte[] state;
+
+  public CartView() {
+    // null version means the entity is not on the DB
+    this.version = null;
+    this.cartId = "";
+    this.seqNr = 0;
+    this.state = EMPTY_STATE;
+  }
+
+  public CartView(String cartId, Long version, long seqNr, byte[] state) {
+    this.cartId = cartId;
+    this.version = version;
+    this.seqNr = seqNr;
+    this.state = state;
+  }
+
+  /** The view of a cart that has no events applied yet. */
+  public static CartView empty(String cartId) {
+    return new CartView(cartId, null, 0, EMPTY_STATE);
+  }
+
+  public String getCartId() {
+    return cartId;
+  }
+
+  public long getSeqNr() {
+    return seqNr;
+  }
+
+  ShoppingCart.State toState() {
+    try {
+      return ShoppingCartSerializer.fromProto(CartState.parseFrom(state));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Invalid view of cart " + cartId, e);
+    }
+  }
+
+  CartView withState(ShoppingCart.State newState, long newSeqNr) {
+    return new CartView(
+        cartId, version, newSeqNr, ShoppingCartSerializer.toProto(newState).toByteArray());
+  }
+}
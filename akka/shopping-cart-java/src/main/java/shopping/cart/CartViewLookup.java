@@ -0,0 +1,25 @@
+package shopping.cart;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * The {@link CartView} of a cart together with how far it's behind the journal, see {@code
+ * CartViewRepositoryCustom.lookup}.
+ */
+public final class CartViewLookup {
+
+  /** The view, empty when no event of the cart has been applied to it yet. */
+  public final Optional<CartView> view;
+
+  /**
+   * The write time, in epoch milliseconds, of the first event of the cart that is not applied to
+   * the view yet. Empty when the view is up to date with the journal.
+   */
+  public final OptionalLong firstMissingEventTimestamp;
+
+  public CartViewLookup(Optional<CartView> view, OptionalLong firstMissingEventTimestamp) {
+    this.view = view;
+    this.firstMissingEventTimestamp = firstMissingEventTimestamp;
+  }
+}
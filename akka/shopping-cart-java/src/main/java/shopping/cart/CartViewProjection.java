@@ -0,0 +1,66 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
+import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.query.Offset;
+import akka.projection.ProjectionBehavior;
+import akka.projection.ProjectionId;
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.eventsourced.javadsl.EventSourcedProvider;
+import akka.projection.javadsl.GroupedProjection;
+import akka.projection.javadsl.SourceProvider;
+import akka.projection.jdbc.javadsl.JdbcProjection;
+import com.typesafe.config.Config;
+import java.util.Optional;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import shopping.cart.repository.CartViewRepository;
+import shopping.cart.repository.HibernateJdbcSession;
+
+/**
+ * Keeps the cart_view table up to date with the carts, so that GetCart can be served without
+ * starting the {@link ShoppingCart} entities, see {@code shopping-cart-service.get-cart}.
+ */
+public final class CartViewProjection {
+
+  private CartViewProjection() {}
+
+  public static void init(
+      ActorSystem<?> system,
+      JpaTransactionManager transactionManager,
+      CartViewRepository repository,
+      ProjectionTags tags) {
+    ShardedDaemonProcess.get(system)
+        .init(
+            ProjectionBehavior.Command.class,
+            "CartViewProjection",
+            tags.size(),
+            index ->
+                ProjectionBehavior.create(
+                    createProjectionFor(system, transactionManager, repository, tags.tag(index))),
+            ShardedDaemonProcessSettings.create(system),
+            Optional.of(ProjectionBehavior.stopMessage()));
+  }
+
+  private static GroupedProjection<Offset, EventEnvelope<ShoppingCart.Event>> createProjectionFor(
+      ActorSystem<?> system,
+      JpaTransactionManager transactionManager,
+      CartViewRepository repository,
+      String tag) {
+    SourceProvider<Offset, EventEnvelope<ShoppingCart.Event>> sourceProvider =
+        EventSourcedProvider.eventsByTag(system, JdbcReadJournal.Identifier(), tag);
+
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.cart-view");
+    // the views and the offset of a group are written in the same transaction
+    return JdbcProjection.groupedWithin(
+            ProjectionId.of("CartViewProjection", tag),
+            sourceProvider,
+            () -> new HibernateJdbcSession(transactionManager),
+            () -> new CartViewProjectionHandler(tag, repository),
+            system)
+        .withGroup(
+            settings.getInt("group-after-envelopes"), settings.getDuration("group-after-duration"));
+  }
+}
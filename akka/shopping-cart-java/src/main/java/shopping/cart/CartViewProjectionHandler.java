@@ -0,0 +1,78 @@
+package shopping.cart;
+
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.jdbc.javadsl.JdbcHandler;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shopping.cart.repository.CartViewRepository;
+import shopping.cart.repository.HibernateJdbcSession;
+
+/**
+ * Applies the events of a group of envelopes to the {@link CartView}s of their carts. The views of
+ * all carts in the group are read with one query, the events are applied in memory, and each
+ * changed view is written once, in the same transaction as the offset.
+ *
+ * <p>Each view keeps the sequence number of the last event that is applied to it, so that readers
+ * can tell how far it's behind the journal, and events that are delivered again after a restart
+ * are skipped.
+ */
+public final class CartViewProjectionHandler
+    extends JdbcHandler<List<EventEnvelope<ShoppingCart.Event>>, HibernateJdbcSession> {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final String tag;
+  private final CartViewRepository repo;
+
+  public CartViewProjectionHandler(String tag, CartViewRepository repo) {
+    this.tag = tag;
+    this.repo = repo;
+  }
+
+  @Override
+  public void process(
+      HibernateJdbcSession session, List<EventEnvelope<ShoppingCart.Event>> envelopes) {
+    Map<String, CartView> views = new LinkedHashMap<>();
+    for (EventEnvelope<ShoppingCart.Event> envelope : envelopes) {
+      views.put(envelope.event().cartId, null);
+    }
+    for (CartView view : repo.findAllByCartIdIn(views.keySet())) {
+      views.put(view.getCartId(), view);
+    }
+
+    Map<String, ShoppingCart.State> states = new LinkedHashMap<>();
+    Map<String, Long> seqNrs = new LinkedHashMap<>();
+    for (EventEnvelope<ShoppingCart.Event> envelope : envelopes) {
+      ShoppingCart.Event event = envelope.event();
+      CartView view = views.get(event.cartId);
+      long seqNr = seqNrs.getOrDefault(event.cartId, view == null ? 0L : view.getSeqNr());
+      if (envelope.sequenceNr() <= seqNr) {
+        continue; // already applied
+      }
+      ShoppingCart.State state =
+          states.computeIfAbsent(
+              event.cartId, cartId -> view == null ? new ShoppingCart.State() : view.toState());
+      ShoppingCart.applyEvent(state, event);
+      seqNrs.put(event.cartId, envelope.sequenceNr());
+    }
+
+    if (!states.isEmpty()) {
+      List<CartView> changed = new ArrayList<>(states.size());
+      for (Map.Entry<String, ShoppingCart.State> entry : states.entrySet()) {
+        String cartId = entry.getKey();
+        CartView view = views.get(cartId);
+        if (view == null) view = CartView.empty(cartId);
+        changed.add(view.withState(entry.getValue(), seqNrs.get(cartId)));
+      }
+      repo.saveAll(changed);
+    }
+
+    logger.debug(
+        "CartViewProjectionHandler({}) updated {} carts from {} envelopes",
+        tag,
+        states.size(),
+        envelopes.size());
+  }
+}
@@ -0,0 +1,106 @@
+package shopping.cart;
+
+import akka.actor.Scheduler;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Recorder;
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import scala.concurrent.ExecutionContext;
+
+/**
+ * Loads item popularity counts in batches, used by {@link ShoppingCartServiceImpl} for
+ * GetItemPopularities, behind the {@link ItemPopularityCache} when it's enabled.
+ *
+ * <p>The items that are loaded within {@code window} of the first one are read together, with a
+ * single query, so that concurrent batch requests share that query. A batch is read right away
+ * when it reaches {@code max-size} items. Items that are not in the database have a count of 0.
+ * The number of items per query is reported as the {@code item-popularity-batch-size} Cinnamon
+ * recorder.
+ */
+public final class ItemPopularityBatchLoader {
+
+  private final Function<Set<String>, CompletionStage<Map<String, Long>>> query;
+  private final Duration window;
+  private final int maxSize;
+  private final Scheduler scheduler;
+  private final ExecutionContext executionContext;
+  private final Recorder batchSize;
+
+  // the batch that is collecting items, null when there is none, guarded by this
+  private Map<String, CompletableFuture<Long>> pending;
+
+  // the query reads the counts of the items that exist
+  public ItemPopularityBatchLoader(
+      ActorSystem<?> system,
+      Config settings,
+      Function<Set<String>, CompletionStage<Map<String, Long>>> query) {
+    this.query = query;
+    window = settings.getDuration("window");
+    maxSize = settings.getInt("max-size");
+    scheduler = Adapter.toClassic(system).scheduler();
+    executionContext = system.executionContext();
+    batchSize =
+        CinnamonMetrics.get(Adapter.toClassic(system))
+            .createRecorder("item-popularity-batch-size");
+  }
+
+  /** The popularity count of the item, read with the other items of its batch. */
+  public CompletionStage<Long> load(String itemId) {
+    CompletableFuture<Long> count;
+    Map<String, CompletableFuture<Long>> full = null;
+    synchronized (this) {
+      if (pending == null) {
+        Map<String, CompletableFuture<Long>> batch = new HashMap<>();
+        pending = batch;
+        scheduler.scheduleOnce(window, () -> flushIfPending(batch), executionContext);
+      }
+      count = pending.computeIfAbsent(itemId, id -> new CompletableFuture<>());
+      if (pending.size() >= maxSize) {
+        full = pending;
+        pending = null;
+      }
+    }
+    if (full != null) {
+      read(full);
+    }
+    return count;
+  }
+
+  private void flushIfPending(Map<String, CompletableFuture<Long>> batch) {
+    synchronized (this) {
+      if (pending != batch) {
+        return; // already read because it was full
+      }
+      pending = null;
+    }
+    read(batch);
+  }
+
+  private void read(Map<String, CompletableFuture<Long>> batch) {
+    batchSize.record(batch.size());
+    CompletionStage<Map<String, Long>> counts;
+    try {
+      counts = query.apply(batch.keySet());
+    } catch (RuntimeException e) {
+      counts = CompletableFuture.failedFuture(e);
+    }
+    counts.whenComplete(
+        (found, exc) ->
+            batch.forEach(
+                (itemId, count) -> {
+                  if (exc != null) {
+                    count.completeExceptionally(exc);
+                  } else {
+                    count.complete(found.getOrDefault(itemId, 0L));
+                  }
+                }));
+  }
+}
@@ -0,0 +1,124 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Counter;
+import com.typesafe.config.Config;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of item popularity counts, used by {@link ShoppingCartServiceImpl} in front of
+ * the {@link shopping.cart.repository.ItemPopularityRepository}.
+ *
+ * <p>Entries expire after the configured time-to-live, and the least recently used entry is evicted
+ * when the cache is full. The time-to-live starts when the load completes, so a slow load doesn't
+ * shorten it. Concurrent lookups of an item that is not cached share a single load, and each gets
+ * a stage of its own, which can't complete or cancel the load for the others. Failed loads are not
+ * cached. Hits, misses and evictions are reported as Cinnamon counters.
+ */
+public final class ItemPopularityCache {
+
+  private static final class Entry {
+    final CompletableFuture<Long> count;
+    // set when the load completes, guarded by the entries
+    long loadedAtNanos;
+
+    Entry(CompletableFuture<Long> count) {
+      this.count = count;
+    }
+  }
+
+  private final Function<String, CompletionStage<Long>> loader;
+  private final int maxEntries;
+  private final long timeToLiveNanos;
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter evictions;
+
+  private final Map<String, Entry> entries;
+
+  public ItemPopularityCache(
+      ActorSystem<?> system, Config settings, Function<String, CompletionStage<Long>> loader) {
+    this.loader = loader;
+    this.maxEntries = settings.getInt("max-entries");
+    this.timeToLiveNanos = settings.getDuration("time-to-live", TimeUnit.NANOSECONDS);
+
+    CinnamonMetrics metrics = CinnamonMetrics.get(Adapter.toClassic(system));
+    this.hits = metrics.createCounter("item-popularity-cache-hits");
+    this.misses = metrics.createCounter("item-popularity-cache-misses");
+    this.evictions = metrics.createCounter("item-popularity-cache-evictions");
+
+    // access ordered, so that the eldest entry is the least recently used one
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+              evictions.increment();
+              return true;
+            } else {
+              return false;
+            }
+          }
+        };
+  }
+
+  /** The popularity count of the item, loaded with the loader if not cached or expired. */
+  public CompletionStage<Long> get(String itemId) {
+    return get(itemId, loader);
+  }
+
+  /**
+   * The popularity count of the item, loaded with the given loader if not cached or expired, such
+   * as one that loads it together with other items.
+   */
+  public CompletionStage<Long> get(String itemId, Function<String, CompletionStage<Long>> loader) {
+    CompletableFuture<Long> count = new CompletableFuture<>();
+    Entry loading;
+    synchronized (entries) {
+      long now = System.nanoTime();
+      Entry entry = entries.get(itemId);
+      if (entry != null) {
+        // an entry that is still loading is never expired, that load is shared instead
+        if (!entry.count.isDone() || now - entry.loadedAtNanos < timeToLiveNanos) {
+          hits.increment();
+          return entry.count.minimalCompletionStage();
+        }
+        entries.remove(itemId);
+        evictions.increment();
+      }
+      misses.increment();
+      loading = new Entry(count);
+      entries.put(itemId, loading);
+    }
+
+    CompletionStage<Long> loaded;
+    try {
+      loaded = loader.apply(itemId);
+    } catch (RuntimeException e) {
+      loaded = CompletableFuture.failedFuture(e);
+    }
+    loaded.whenComplete(
+        (value, exc) -> {
+          if (exc != null) {
+            synchronized (entries) {
+              entries.remove(itemId, loading);
+            }
+            count.completeExceptionally(exc);
+          } else {
+            synchronized (entries) {
+              loading.loadedAtNanos = System.nanoTime();
+            }
+            count.complete(value);
+          }
+        });
+    return count.minimalCompletionStage();
+  }
+}
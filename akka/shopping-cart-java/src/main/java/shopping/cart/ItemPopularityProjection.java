@@ -6,13 +6,14 @@ import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
 import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
 import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
 import akka.persistence.query.Offset;
+import akka.projection.Projection;
 import akka.projection.ProjectionBehavior;
 import akka.projection.ProjectionId;
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.eventsourced.javadsl.EventSourcedProvider;
-import akka.projection.javadsl.ExactlyOnceProjection;
 import akka.projection.javadsl.SourceProvider;
 import akka.projection.jdbc.javadsl.JdbcProjection;
+import com.typesafe.config.Config;
 import java.util.Optional;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import shopping.cart.repository.HibernateJdbcSession;
@@ -26,29 +27,30 @@ public final class ItemPopularityProjection {
   public static void init(
       ActorSystem<?> system,
       JpaTransactionManager transactionManager,
-      ItemPopularityRepository repository) {
+      ItemPopularityRepository repository,
+      ItemPopularityUpdates updates,
+      ProjectionTags tags) {
 
     ShardedDaemonProcess.get(system)
         .init( // <1>
             ProjectionBehavior.Command.class,
             "ItemPopularityProjection",
-            ShoppingCart.TAGS.size(),
+            tags.size(),
             index ->
                 ProjectionBehavior.create(
-                    createProjectionFor(system, transactionManager, repository, index)),
+                    createProjectionFor(
+                        system, transactionManager, repository, updates, tags.tag(index))),
             ShardedDaemonProcessSettings.create(system),
             Optional.of(ProjectionBehavior.stopMessage()));
   }
   // end::howto-read-side-without-role[]
 
-  private static ExactlyOnceProjection<Offset, EventEnvelope<ShoppingCart.Event>>
-      createProjectionFor(
-          ActorSystem<?> system,
-          JpaTransactionManager transactionManager,
-          ItemPopularityRepository repository,
-          int index) {
-
-    String tag = ShoppingCart.TAGS.get(index); // <2>
+  private static Projection<EventEnvelope<ShoppingCart.Event>> createProjectionFor(
+      ActorSystem<?> system,
+      JpaTransactionManager transactionManager,
+      ItemPopularityRepository repository,
+      ItemPopularityUpdates updates,
+      String tag) { // <2>
 
     SourceProvider<Offset, EventEnvelope<ShoppingCart.Event>> sourceProvider = // <3>
         EventSourcedProvider.eventsByTag(
@@ -56,12 +58,34 @@ public final class ItemPopularityProjection {
             JdbcReadJournal.Identifier(), // <4>
             tag);
 
-    return JdbcProjection.exactlyOnce( // <5>
-        ProjectionId.of("ItemPopularityProjection", tag),
-        sourceProvider,
-        () -> new HibernateJdbcSession(transactionManager), // <6>
-        () -> new ItemPopularityProjectionHandler(tag, repository), // <7>
-        system);
+    ProjectionId projectionId = ProjectionId.of("ItemPopularityProjection", tag);
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.item-popularity");
+    String mode = settings.getString("mode");
+
+    if (mode.equals("single")) {
+      return JdbcProjection.exactlyOnce( // <5>
+          projectionId,
+          sourceProvider,
+          () -> new HibernateJdbcSession(transactionManager), // <6>
+          () -> new ItemPopularityProjectionHandler(tag, repository, updates), // <7>
+          system);
+    } else if (mode.equals("grouped")) {
+      // the offset of the last envelope of a group is stored in the same transaction as the
+      // popularity updates of the whole group, so this is also exactly-once
+      return JdbcProjection.groupedWithin(
+              projectionId,
+              sourceProvider,
+              () -> new HibernateJdbcSession(transactionManager),
+              () -> new ItemPopularityProjectionGroupedHandler(tag, repository, updates),
+              system)
+          .withGroup(
+              settings.getInt("group-after-envelopes"),
+              settings.getDuration("group-after-duration"));
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown item-popularity projection mode [" + mode + "], use single or grouped");
+    }
   }
 }
 // end::projection[]
@@ -0,0 +1,67 @@
+package shopping.cart;
+
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.jdbc.javadsl.JdbcHandler;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shopping.cart.repository.HibernateJdbcSession;
+import shopping.cart.repository.ItemPopularityRepository;
+
+/**
+ * Grouped variant of {@link ItemPopularityProjectionHandler}. The events of a whole group of
+ * envelopes are folded into one count delta per item, and all touched items are then updated
+ * with a single multi-row upsert. The projection stores the offset of the last envelope in the
+ * same transaction.
+ */
+public final class ItemPopularityProjectionGroupedHandler
+    extends JdbcHandler<List<EventEnvelope<ShoppingCart.Event>>, HibernateJdbcSession> {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final String tag;
+  private final ItemPopularityRepository repo;
+  private final ItemPopularityUpdates updates;
+
+  public ItemPopularityProjectionGroupedHandler(
+      String tag, ItemPopularityRepository repo, ItemPopularityUpdates updates) {
+    this.tag = tag;
+    this.repo = repo;
+    this.updates = updates;
+  }
+
+  @Override
+  public void process(
+      HibernateJdbcSession session, List<EventEnvelope<ShoppingCart.Event>> envelopes) {
+    Map<String, Long> deltas = new LinkedHashMap<>();
+    for (EventEnvelope<ShoppingCart.Event> envelope : envelopes) {
+      ShoppingCart.Event event = envelope.event();
+
+      if (event instanceof ShoppingCart.ItemAdded) {
+        ShoppingCart.ItemAdded added = (ShoppingCart.ItemAdded) event;
+        deltas.merge(added.itemId, (long) added.quantity, Long::sum);
+      } else if (event instanceof ShoppingCart.ItemQuantityAdjusted) {
+        ShoppingCart.ItemQuantityAdjusted adjusted = (ShoppingCart.ItemQuantityAdjusted) event;
+        deltas.merge(
+            adjusted.itemId, (long) (adjusted.newQuantity - adjusted.oldQuantity), Long::sum);
+      } else if (event instanceof ShoppingCart.ItemRemoved) {
+        ShoppingCart.ItemRemoved removed = (ShoppingCart.ItemRemoved) event;
+        deltas.merge(removed.itemId, (long) -removed.oldQuantity, Long::sum);
+      } else {
+        // skip all other events, such as `CheckedOut`
+      }
+    }
+
+    // changes that cancel out within the group don't need a write
+    deltas.values().removeIf(delta -> delta == 0);
+    if (!deltas.isEmpty()) {
+      updates.publishAfterCommit(repo.incrementCounts(deltas));
+    }
+
+    logger.debug(
+        "ItemPopularityProjectionHandler({}) updated popularity of {} items from {} envelopes",
+        tag,
+        deltas.size(),
+        envelopes.size());
+  }
+}
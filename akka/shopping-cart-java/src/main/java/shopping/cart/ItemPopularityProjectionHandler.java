@@ -3,6 +3,7 @@ package shopping.cart;
 
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.jdbc.javadsl.JdbcHandler;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import shopping.cart.repository.HibernateJdbcSession;
@@ -13,14 +14,13 @@ public final class ItemPopularityProjectionHandler
   private final Logger logger = LoggerFactory.getLogger(getClass());
   private final String tag;
   private final ItemPopularityRepository repo;
+  private final ItemPopularityUpdates updates;
 
-  public ItemPopularityProjectionHandler(String tag, ItemPopularityRepository repo) {
+  public ItemPopularityProjectionHandler(
+      String tag, ItemPopularityRepository repo, ItemPopularityUpdates updates) {
     this.tag = tag;
     this.repo = repo;
-  }
-
-  private ItemPopularity findOrNew(String itemId) {
-    return repo.findById(itemId).orElseGet(() -> new ItemPopularity(itemId, 0, 0));
+    this.updates = updates;
   }
 
   @Override
@@ -32,32 +32,27 @@ public final class ItemPopularityProjectionHandler
       ShoppingCart.ItemAdded added = (ShoppingCart.ItemAdded) event;
       String itemId = added.itemId;
 
-      ItemPopularity existingItemPop = findOrNew(itemId);
-      ItemPopularity updatedItemPop = existingItemPop.changeCount(added.quantity);
-      repo.save(updatedItemPop);
+      ItemPopularity updated = repo.incrementCount(itemId, added.quantity);
+      updates.publishAfterCommit(List.of(updated));
 
       logger.info(
           "ItemPopularityProjectionHandler({}) item popularity for '{}': [{}]",
           this.tag,
           itemId,
-          updatedItemPop.getCount());
+          updated.getCount());
       // end::handler[]
     } else if (event instanceof ShoppingCart.ItemQuantityAdjusted) {
       ShoppingCart.ItemQuantityAdjusted adjusted = (ShoppingCart.ItemQuantityAdjusted) event;
       String itemId = adjusted.itemId;
 
-      ItemPopularity existingItemPop = findOrNew(itemId);
-      ItemPopularity updatedItemPop =
-          existingItemPop.changeCount(adjusted.newQuantity - adjusted.oldQuantity);
-      repo.save(updatedItemPop);
+      updates.publishAfterCommit(
+          List.of(repo.incrementCount(itemId, adjusted.newQuantity - adjusted.oldQuantity)));
 
     } else if (event instanceof ShoppingCart.ItemRemoved) {
       ShoppingCart.ItemRemoved removed = (ShoppingCart.ItemRemoved) event;
       String itemId = removed.itemId;
 
-      ItemPopularity existingItemPop = findOrNew(itemId);
-      ItemPopularity updatedItemPop = existingItemPop.changeCount(-removed.oldQuantity);
-      repo.save(updatedItemPop);
+      updates.publishAfterCommit(List.of(repo.incrementCount(itemId, -removed.oldQuantity)));
       // tag::handler[]
     } else {
       // skip all other events, such as `CheckedOut`
@@ -0,0 +1,163 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.Behaviors;
+import com.typesafe.config.Config;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import shopping.cart.repository.ItemPopularityRepository;
+
+/**
+ * In-memory ranking of the most popular items, used by {@link ShoppingCartServiceImpl} to answer
+ * GetTopItems without scanning the item_popularity table.
+ *
+ * <p>The ranking is seeded with the most popular items from the database and then kept up to date
+ * incrementally from the {@link ItemPopularityUpdates} published by the item popularity projection.
+ * Each update replaces the count of one item, so keeping the order costs O(log n) per update, and
+ * reading the top items only walks as many entries as are requested. Updates carry the row version,
+ * so an update that arrives after a newer one, or after the seed, is ignored.
+ *
+ * <p>Items that are neither seeded nor updated since the node started are not known to the
+ * ranking. Their counts are at most the lowest seeded count, so the top of the ranking is accurate
+ * as long as the seed size is well above the largest requested limit.
+ *
+ * <p>The ranking keeps at most {@code seed-size} items, so its memory doesn't grow with every item
+ * that was ever in a cart. The least popular items are dropped when there are more, and so are the
+ * items that are in no cart. An update of a dropped item adds it again with its full count. Only
+ * the version of the dropped item is lost, so an outdated update that arrives after the item was
+ * dropped is applied, until the next update of the item replaces it.
+ */
+public final class ItemPopularityRanking {
+
+  private static final Logger logger = LoggerFactory.getLogger(ItemPopularityRanking.class);
+
+  private static final class Entry {
+    final String itemId;
+    final long count;
+    final long version;
+
+    Entry(String itemId, long count, long version) {
+      this.itemId = itemId;
+      this.count = count;
+      this.version = version;
+    }
+  }
+
+  private static final Comparator<Entry> MOST_POPULAR_FIRST =
+      Comparator.comparingLong((Entry entry) -> entry.count)
+          .reversed()
+          .thenComparing(entry -> entry.itemId);
+
+  private final int capacity;
+
+  // guarded by this, with the same entries
+  private final Map<String, Entry> byItemId = new HashMap<>();
+  private final TreeSet<Entry> ranked = new TreeSet<>(MOST_POPULAR_FIRST);
+
+  /** A ranking of at most {@code capacity} items. */
+  public ItemPopularityRanking(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Creates a ranking that is seeded from the repository and subscribes it to the item popularity
+   * updates.
+   */
+  public static ItemPopularityRanking start(
+      ActorSystem<?> system, ItemPopularityUpdates updates, ItemPopularityRepository repository) {
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.item-popularity-ranking");
+    int seedSize = settings.getInt("seed-size");
+    ItemPopularityRanking ranking = new ItemPopularityRanking(seedSize);
+
+    ActorRef<ItemPopularityUpdates.Changed> subscriber =
+        system.systemActorOf(
+            Behaviors.receiveMessage(
+                changed -> {
+                  ranking.update(changed.items);
+                  return Behaviors.same();
+                }),
+            "item-popularity-ranking",
+            Props.empty());
+    // subscribe before seeding, so that no update is missed in between
+    updates.subscribe(subscriber);
+
+    Executor blockingJdbcExecutor =
+        system
+            .dispatchers()
+            .lookup(DispatcherSelector.fromConfig("akka.projection.jdbc.blocking-jdbc-dispatcher"));
+    CompletableFuture.supplyAsync(
+            () -> repository.findAllByOrderByCountDesc(PageRequest.of(0, seedSize)),
+            blockingJdbcExecutor)
+        .whenComplete(
+            (seed, exc) -> {
+              if (exc != null) {
+                logger.warn("Seeding the item popularity ranking failed", exc);
+              } else {
+                List<ItemPopularityUpdates.ItemCount> items = new ArrayList<>(seed.size());
+                for (ItemPopularity itemPopularity : seed) {
+                  items.add(
+                      new ItemPopularityUpdates.ItemCount(
+                          itemPopularity.getItemId(),
+                          itemPopularity.getCount(),
+                          itemPopularity.getVersion()));
+                }
+                ranking.update(items);
+                logger.debug("Seeded the item popularity ranking with {} items", items.size());
+              }
+            });
+
+    return ranking;
+  }
+
+  /** Applies the counts that are newer than the ones in the ranking. */
+  public synchronized void update(Collection<ItemPopularityUpdates.ItemCount> items) {
+    for (ItemPopularityUpdates.ItemCount item : items) {
+      Entry previous = byItemId.get(item.itemId);
+      if (previous != null) {
+        if (previous.version >= item.version) continue;
+        ranked.remove(previous);
+        byItemId.remove(item.itemId);
+      }
+      // an item that is in no cart is not popular
+      if (item.count > 0) {
+        Entry entry = new Entry(item.itemId, item.count, item.version);
+        byItemId.put(item.itemId, entry);
+        ranked.add(entry);
+      }
+    }
+    while (ranked.size() > capacity) {
+      byItemId.remove(ranked.pollLast().itemId);
+    }
+  }
+
+  // for the tests
+  synchronized int size() {
+    return byItemId.size();
+  }
+
+  /** The most popular items, most popular first, with at most {@code limit} items. */
+  public synchronized List<ItemPopularity> top(int limit) {
+    List<ItemPopularity> top = new ArrayList<>(Math.min(limit, ranked.size()));
+    Iterator<Entry> iterator = ranked.iterator();
+    while (top.size() < limit && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      top.add(new ItemPopularity(entry.itemId, entry.version, entry.count));
+    }
+    return top;
+  }
+}
@@ -0,0 +1,171 @@
+package shopping.cart;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Props;
+import akka.actor.typed.pubsub.Topic;
+import akka.japi.Pair;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import akka.stream.typed.javadsl.ActorSource;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Publishes the item popularity counts written by the {@link ItemPopularityProjection} to all nodes
+ * of the cluster, through a distributed pub-sub {@link Topic}. This lets every node keep read
+ * models such as the {@link ItemPopularityRanking} up to date without querying the database.
+ *
+ * <p>The changes are also available as a stream, shared by all local watchers through a {@link
+ * BroadcastHub}, see {@link #watch}.
+ */
+public final class ItemPopularityUpdates {
+
+  /** The count of an item, and the row version it was written with. */
+  public static final class ItemCount implements CborSerializable {
+    final String itemId;
+    final long count;
+    final long version;
+
+    public ItemCount(String itemId, long count, long version) {
+      this.itemId = itemId;
+      this.count = count;
+      this.version = version;
+    }
+  }
+
+  /** Published when the popularity of some items has changed. */
+  public static final class Changed implements CborSerializable {
+    final List<ItemCount> items;
+
+    @JsonCreator
+    public Changed(List<ItemCount> items) {
+      this.items = items;
+    }
+  }
+
+  private final ActorRef<Topic.Command<Changed>> topic;
+  private final Source<Changed, NotUsed> changes;
+
+  public ItemPopularityUpdates(ActorSystem<?> system) {
+    topic =
+        system.systemActorOf(
+            Topic.create(Changed.class, "item-popularity"), "item-popularity-topic", Props.empty());
+
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.item-popularity-watch");
+    int bufferSize = settings.getInt("buffer-size");
+    // every watcher coalesces on its own right after the hub, so the hub only waits for the
+    // buffer of a watcher that is not running at all, and the oldest changes are dropped then
+    Pair<ActorRef<Changed>, Source<Changed, NotUsed>> hub =
+        ActorSource.<Changed>actorRef(
+                changed -> false,
+                changed -> Optional.empty(),
+                bufferSize,
+                OverflowStrategy.dropHead())
+            .toMat(BroadcastHub.of(Changed.class, bufferSize), Keep.both())
+            .run(system);
+    subscribe(hub.first());
+    changes = hub.second();
+  }
+
+  /**
+   * Publishes the updated item popularities when the current transaction commits, so that counts
+   * of a rolled back transaction are never seen. Publishes right away if there is no transaction.
+   */
+  public void publishAfterCommit(Collection<ItemPopularity> updated) {
+    if (updated.isEmpty()) return;
+
+    List<ItemCount> items = new ArrayList<>(updated.size());
+    for (ItemPopularity itemPopularity : updated) {
+      items.add(
+          new ItemCount(
+              itemPopularity.getItemId(), itemPopularity.getCount(), itemPopularity.getVersion()));
+    }
+    Changed changed = new Changed(items);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              topic.tell(Topic.publish(changed));
+            }
+          });
+    } else {
+      topic.tell(Topic.publish(changed));
+    }
+  }
+
+  /** Subscribes the actor to the changes published by any node. */
+  public void subscribe(ActorRef<Changed> subscriber) {
+    topic.tell(Topic.subscribe(subscriber));
+  }
+
+  /**
+   * The changes of the given items, as they are published by any node. The changes of an item are
+   * coalesced within the interval, so that at most one count per item is emitted per interval, and
+   * while the downstream backpressures. Counts are never emitted out of version order.
+   */
+  public Source<ItemCount, NotUsed> watch(Set<String> itemIds, Duration coalesceInterval) {
+    return watch(changes, itemIds, coalesceInterval);
+  }
+
+  static <Mat> Source<ItemCount, Mat> watch(
+      Source<Changed, Mat> changes, Set<String> itemIds, Duration coalesceInterval) {
+    return changes
+        .mapConcat(
+            changed -> {
+              List<ItemCount> watched = new ArrayList<>();
+              for (ItemCount item : changed.items) {
+                if (itemIds.contains(item.itemId)) watched.add(item);
+              }
+              return watched;
+            })
+        .conflateWithSeed(
+            item -> {
+              Map<String, ItemCount> latest = new LinkedHashMap<>();
+              latest.put(item.itemId, item);
+              return latest;
+            },
+            (latest, item) -> {
+              latest.merge(item.itemId, item, ItemPopularityUpdates::newest);
+              return latest;
+            })
+        .throttle(1, coalesceInterval)
+        .statefulMapConcat(
+            () -> {
+              // changes published by different nodes may arrive out of order
+              Map<String, Long> emittedVersions = new HashMap<>();
+              return latest -> {
+                List<ItemCount> emit = new ArrayList<>(latest.size());
+                for (ItemCount item : latest.values()) {
+                  Long emitted = emittedVersions.get(item.itemId);
+                  if (emitted == null || emitted < item.version) {
+                    emittedVersions.put(item.itemId, item.version);
+                    emit.add(item);
+                  }
+                }
+                return emit;
+              };
+            });
+  }
+
+  private static ItemCount newest(ItemCount a, ItemCount b) {
+    return a.version >= b.version ? a : b;
+  }
+}
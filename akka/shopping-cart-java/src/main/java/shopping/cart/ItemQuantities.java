@@ -0,0 +1,260 @@
+package shopping.cart;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The quantities of the items in a {@link ShoppingCart}, by itemId.
+ *
+ * <p>The items are kept in two parallel arrays in the order they were added, so that a quantity is
+ * stored as a primitive int without an entry object per item. A cart holds few items, so a linear
+ * scan is as fast as hashing here.
+ *
+ * <p>Instances are immutable: updates return a new instance and leave the original unchanged. This
+ * lets the events and the {@link ShoppingCart.Summary} replies share the items. The cart state
+ * updates its items in place with a {@link Builder} instead, so that replaying the events of a cart
+ * doesn't copy its items for every event.
+ *
+ * <p>The {@link Map} view boxes the quantities when they are read through it, use {@link
+ * #quantity(String)}, {@link #itemIdAt(int)} and {@link #quantityAt(int)} to avoid that.
+ *
+ * <p>It is serialized like any other map, so it's compatible with the {@code HashMap} that carts
+ * were stored with before.
+ */
+public final class ItemQuantities extends AbstractMap<String, Integer> {
+
+  private static final String[] NO_ITEM_IDS = new String[0];
+  private static final int[] NO_QUANTITIES = new int[0];
+
+  public static final ItemQuantities EMPTY = new ItemQuantities(NO_ITEM_IDS, NO_QUANTITIES);
+
+  private final String[] itemIds;
+  private final int[] quantities;
+
+  private ItemQuantities(String[] itemIds, int[] quantities) {
+    this.itemIds = itemIds;
+    this.quantities = quantities;
+  }
+
+  /** The quantities of the parallel arrays, which must not be changed afterwards. */
+  static ItemQuantities of(String[] itemIds, int[] quantities) {
+    if (itemIds.length != quantities.length) {
+      throw new IllegalArgumentException("itemIds and quantities must have the same length");
+    }
+    return itemIds.length == 0 ? EMPTY : new ItemQuantities(itemIds, quantities);
+  }
+
+  /** The quantities of the given map, which is returned as is if it's already immutable. */
+  public static ItemQuantities copyOf(Map<String, Integer> items) {
+    if (items instanceof ItemQuantities) return (ItemQuantities) items;
+    if (items.isEmpty()) return EMPTY;
+
+    String[] itemIds = new String[items.size()];
+    int[] quantities = new int[items.size()];
+    int i = 0;
+    for (Map.Entry<String, Integer> item : items.entrySet()) {
+      itemIds[i] = item.getKey();
+      quantities[i] = item.getValue();
+      i++;
+    }
+    return new ItemQuantities(itemIds, quantities);
+  }
+
+  private int indexOf(Object itemId) {
+    for (int i = 0; i < itemIds.length; i++) {
+      if (itemIds[i].equals(itemId)) return i;
+    }
+    return -1;
+  }
+
+  /** The quantity of the item, or 0 if it's not in the cart. */
+  public int quantity(String itemId) {
+    int i = indexOf(itemId);
+    return i < 0 ? 0 : quantities[i];
+  }
+
+  /** The itemId at the given position, between 0 and {@link #size()}. */
+  public String itemIdAt(int index) {
+    return itemIds[index];
+  }
+
+  /** The quantity at the given position, between 0 and {@link #size()}. */
+  public int quantityAt(int index) {
+    return quantities[index];
+  }
+
+  /** A copy with the quantity of the item set, the item is added if it's not in the cart. */
+  public ItemQuantities updated(String itemId, int quantity) {
+    int i = indexOf(itemId);
+    if (i >= 0) {
+      if (quantities[i] == quantity) return this;
+      int[] newQuantities = quantities.clone();
+      newQuantities[i] = quantity;
+      return new ItemQuantities(itemIds, newQuantities);
+    } else {
+      String[] newItemIds = Arrays.copyOf(itemIds, itemIds.length + 1);
+      int[] newQuantities = Arrays.copyOf(quantities, quantities.length + 1);
+      newItemIds[itemIds.length] = itemId;
+      newQuantities[quantities.length] = quantity;
+      return new ItemQuantities(newItemIds, newQuantities);
+    }
+  }
+
+  /** A copy without the item. */
+  public ItemQuantities removed(String itemId) {
+    int i = indexOf(itemId);
+    if (i < 0) return this;
+    if (itemIds.length == 1) return EMPTY;
+
+    String[] newItemIds = new String[itemIds.length - 1];
+    int[] newQuantities = new int[quantities.length - 1];
+    System.arraycopy(itemIds, 0, newItemIds, 0, i);
+    System.arraycopy(quantities, 0, newQuantities, 0, i);
+    System.arraycopy(itemIds, i + 1, newItemIds, i, itemIds.length - i - 1);
+    System.arraycopy(quantities, i + 1, newQuantities, i, quantities.length - i - 1);
+    return new ItemQuantities(newItemIds, newQuantities);
+  }
+
+  /**
+   * Mutable quantities, which are updated in place. The arrays grow by doubling their capacity,
+   * and are copied into a new {@link ItemQuantities} only when it's built after a change.
+   */
+  static final class Builder {
+    private String[] itemIds;
+    private int[] quantities;
+    private int size;
+    // the instance that was built since the last change, which may share the arrays
+    private ItemQuantities built;
+
+    Builder(ItemQuantities items) {
+      itemIds = items.itemIds;
+      quantities = items.quantities;
+      size = items.itemIds.length;
+      built = items;
+    }
+
+    private int indexOf(String itemId) {
+      for (int i = 0; i < size; i++) {
+        if (itemIds[i].equals(itemId)) return i;
+      }
+      return -1;
+    }
+
+    /** The quantity of the item, or 0 if it's not in the cart. */
+    int quantity(String itemId) {
+      int i = indexOf(itemId);
+      return i < 0 ? 0 : quantities[i];
+    }
+
+    boolean contains(String itemId) {
+      return indexOf(itemId) >= 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    // the arrays are copied before the first change after they were shared, or when they are full
+    private void beforeChange(int newSize) {
+      if ((built != null && built.itemIds == itemIds) || newSize > itemIds.length) {
+        int capacity = Math.max(newSize, Math.max(4, itemIds.length * 2));
+        itemIds = Arrays.copyOf(itemIds, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+      }
+      built = null;
+    }
+
+    /** Sets the quantity of the item, the item is added if it's not in the cart. */
+    void set(String itemId, int quantity) {
+      int i = indexOf(itemId);
+      if (i >= 0) {
+        if (quantities[i] == quantity) return;
+        beforeChange(size);
+        quantities[i] = quantity;
+      } else {
+        beforeChange(size + 1);
+        itemIds[size] = itemId;
+        quantities[size] = quantity;
+        size++;
+      }
+    }
+
+    void remove(String itemId) {
+      int i = indexOf(itemId);
+      if (i < 0) return;
+      beforeChange(size);
+      System.arraycopy(itemIds, i + 1, itemIds, i, size - i - 1);
+      System.arraycopy(quantities, i + 1, quantities, i, size - i - 1);
+      size--;
+      itemIds[size] = null;
+    }
+
+    /** The current quantities, the same instance until the next change. */
+    ItemQuantities build() {
+      if (built == null) {
+        built =
+            size == 0
+                ? EMPTY
+                : new ItemQuantities(Arrays.copyOf(itemIds, size), Arrays.copyOf(quantities, size));
+      }
+      return built;
+    }
+  }
+
+  @Override
+  public int size() {
+    return itemIds.length;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return itemIds.length == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object itemId) {
+    return indexOf(itemId) >= 0;
+  }
+
+  @Override
+  public Integer get(Object itemId) {
+    int i = indexOf(itemId);
+    return i < 0 ? null : quantities[i];
+  }
+
+  @Override
+  public Set<Map.Entry<String, Integer>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Integer>>() {
+      @Override
+      public int size() {
+        return itemIds.length;
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, Integer>> iterator() {
+        return new Iterator<Map.Entry<String, Integer>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < itemIds.length;
+          }
+
+          @Override
+          public Map.Entry<String, Integer> next() {
+            if (next >= itemIds.length) throw new NoSuchElementException();
+            Map.Entry<String, Integer> entry =
+                new AbstractMap.SimpleImmutableEntry<>(itemIds[next], quantities[next]);
+            next++;
+            return entry;
+          }
+        };
+      }
+    };
+  }
+}
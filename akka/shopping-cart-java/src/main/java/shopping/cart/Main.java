@@ -8,12 +8,16 @@ import akka.grpc.GrpcClientSettings;
 import akka.management.cluster.bootstrap.ClusterBootstrap;
 import akka.management.javadsl.AkkaManagement;
 import com.typesafe.config.Config;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import shopping.cart.proto.ShoppingCartService;
+import shopping.cart.repository.AsyncItemPopularityRepository;
+import shopping.cart.repository.CartViewRepository;
 import shopping.cart.repository.ItemPopularityRepository;
+import shopping.cart.repository.R2dbcItemPopularityRepository;
 import shopping.cart.repository.SpringIntegration;
 // tag::SendOrderProjection[]
 import shopping.order.proto.ShoppingOrderService;
@@ -40,8 +44,6 @@ public class Main {
     AkkaManagement.get(system).start();
     ClusterBootstrap.get(system).start();
 
-    ShoppingCart.init(system);
-
     ApplicationContext springContext = SpringIntegration.applicationContext(system);
 
     ItemPopularityRepository itemPopularityRepository =
@@ -49,18 +51,45 @@ public class Main {
 
     JpaTransactionManager transactionManager = springContext.getBean(JpaTransactionManager.class);
 
-    ItemPopularityProjection.init(system, transactionManager, itemPopularityRepository);
+    ProjectionTags projectionTags = new ProjectionTags(system);
+    ShoppingCart.init(system, projectionTags);
+
+    ItemPopularityUpdates itemPopularityUpdates = new ItemPopularityUpdates(system);
+    ItemPopularityProjection.init(
+        system,
+        transactionManager,
+        itemPopularityRepository,
+        itemPopularityUpdates,
+        projectionTags);
+    ItemPopularityRanking itemPopularityRanking =
+        ItemPopularityRanking.start(system, itemPopularityUpdates, itemPopularityRepository);
 
-    PublishEventsProjection.init(system, transactionManager);
+    PublishEventsProjection.init(system, transactionManager, projectionTags);
+
+    CartViewRepository cartViewRepository = springContext.getBean(CartViewRepository.class);
+    CartViewProjection.init(system, transactionManager, cartViewRepository, projectionTags);
 
     // tag::SendOrderProjection[]
-    SendOrderProjection.init(system, transactionManager, orderService); // <1>
+    SendOrderProjection.init(system, transactionManager, orderService, projectionTags); // <1>
     // end::SendOrderProjection[]
 
+    CartRetirement.init(system, transactionManager, projectionTags);
+
     Config config = system.settings().config();
     String grpcInterface = config.getString("shopping-cart-service.grpc.interface");
     int grpcPort = config.getInt("shopping-cart-service.grpc.port");
-    ShoppingCartService grpcService = new ShoppingCartServiceImpl(system, itemPopularityRepository);
+    Optional<AsyncItemPopularityRepository> asyncItemPopularityRepository =
+        config.getBoolean("r2dbc-connection-settings.enabled")
+            ? Optional.of(R2dbcItemPopularityRepository.create(system))
+            : Optional.empty();
+    ShoppingCartService grpcService =
+        new ShoppingCartServiceImpl(
+            system,
+            itemPopularityRepository,
+            itemPopularityRanking,
+            itemPopularityUpdates,
+            cartViewRepository,
+            asyncItemPopularityRepository);
     ShoppingCartServer.start(grpcInterface, grpcPort, system, grpcService);
     // tag::SendOrderProjection[]
   }
@@ -73,7 +102,8 @@ public class Main {
                 system)
             .withTls(false);
 
-    return ShoppingOrderServiceClient.create(orderServiceClientSettings, system);
+    return new ResilientOrderService(
+        ShoppingOrderServiceClient.create(orderServiceClientSettings, system), system);
   }
   // end::SendOrderProjection[]
 
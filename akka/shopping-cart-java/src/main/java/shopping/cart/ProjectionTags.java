@@ -0,0 +1,96 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.persistence.typed.PersistenceId;
+import com.typesafe.config.Config;
+
+/**
+ * The tags that the {@link ShoppingCart} events are tagged with. Each projection runs one instance
+ * per tag, so the number of tags is the number of parallel workers of each projection.
+ *
+ * <p>A cart is assigned to a tag with one of two mappings, selected by {@code mapping}:
+ *
+ * <ul>
+ *   <li>{@code modulo}, the mapping of the earlier versions, which is the absolute value of the
+ *       cart id hash code modulo the number of tags. It keeps existing carts on their tags.
+ *   <li>{@code mixed-ranges}, where the hash space is split into as many contiguous, equally sized
+ *       ranges as there are tags. The String hash codes of similar ids, such as sequential cart
+ *       ids, are close to each other and would end up in the same range, so the hash of the
+ *       persistence id is mixed first. This spreads the carts evenly over the tags for any number
+ *       of tags, which the modulo of the plain hash code does not.
+ * </ul>
+ *
+ * <p>Changing the mapping moves existing carts to other tags, like changing the number of tags,
+ * so it's done the same way, with a full restart of the cluster.
+ *
+ * <p>The tag names don't depend on the number of tags, so when the number of tags is increased the
+ * projections of the existing tags continue from their stored offsets. When it is decreased, the
+ * tags above the new count must still be projected until their events are processed, see {@code
+ * drain-count} in projection.conf.
+ */
+public final class ProjectionTags {
+
+  private static final String PREFIX = "carts-";
+
+  private final int count;
+  private final int drainCount;
+  private final boolean mixedRanges;
+
+  public ProjectionTags(ActorSystem<?> system) {
+    this(system.settings().config().getConfig("shopping-cart-service.projections.tags"));
+  }
+
+  // the settings of shopping-cart-service.projections.tags
+  ProjectionTags(Config settings) {
+    count = settings.getInt("count");
+    drainCount = settings.getInt("drain-count");
+    if (count < 1) {
+      throw new IllegalArgumentException(
+          "shopping-cart-service.projections.tags.count must be at least 1, was " + count);
+    }
+    String mapping = settings.getString("mapping");
+    switch (mapping) {
+      case "modulo":
+        mixedRanges = false;
+        break;
+      case "mixed-ranges":
+        mixedRanges = true;
+        break;
+      default:
+        throw new IllegalArgumentException(
+            "shopping-cart-service.projections.tags.mapping must be modulo or mixed-ranges, was "
+                + mapping);
+    }
+  }
+
+  /** The tag of all events of the cart. */
+  public String tagFor(String cartId) {
+    if (!mixedRanges) {
+      return tag(Math.abs(cartId.hashCode() % count));
+    }
+    String persistenceId = PersistenceId.of(ShoppingCart.ENTITY_KEY.name(), cartId).id();
+    long hash = Integer.toUnsignedLong(mix(persistenceId.hashCode()));
+    // the index of the range that the hash falls into, of count equally sized ranges
+    return tag((int) ((hash * count) >>> 32));
+  }
+
+  // the finalization step of MurmurHash3, every input bit affects every output bit
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  /** The number of tags that are projected, which includes the tags that are being drained. */
+  public int size() {
+    return Math.max(count, drainCount);
+  }
+
+  /** The tag with the given index, between 0 and {@link #size()}. */
+  public String tag(int index) {
+    return PREFIX + index;
+  }
+}
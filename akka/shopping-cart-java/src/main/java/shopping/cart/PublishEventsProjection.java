@@ -2,19 +2,24 @@ package shopping.cart;
 
 import akka.actor.CoordinatedShutdown;
 import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
 import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
 import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
 import akka.kafka.ProducerSettings;
 import akka.kafka.javadsl.SendProducer;
 import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
 import akka.persistence.query.Offset;
+import akka.projection.Projection;
 import akka.projection.ProjectionBehavior;
 import akka.projection.ProjectionId;
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.eventsourced.javadsl.EventSourcedProvider;
-import akka.projection.javadsl.AtLeastOnceProjection;
 import akka.projection.javadsl.SourceProvider;
 import akka.projection.jdbc.javadsl.JdbcProjection;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Counter;
+import com.lightbend.cinnamon.metric.Recorder;
+import com.typesafe.config.Config;
 import java.util.Optional;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -25,18 +30,38 @@ public final class PublishEventsProjection {
 
   private PublishEventsProjection() {}
 
-  public static void init(ActorSystem<?> system, JpaTransactionManager transactionManager) {
+  public static void init(
+      ActorSystem<?> system, JpaTransactionManager transactionManager, ProjectionTags tags) {
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.publish-events");
+    String mode = settings.getString("mode");
+    if (mode.equals("transactional")) {
+      PublishEventsTransactionalProjection.init(system, transactionManager, tags);
+      return;
+    }
+
     SendProducer<String, byte[]> sendProducer = createProducer(system);
     String topic = system.settings().config().getString("shopping-cart-service.kafka.topic");
+    // shared by the projection instances of all tags on this node
+    CinnamonMetrics metrics = CinnamonMetrics.get(Adapter.toClassic(system));
+    Counter inFlight = metrics.createCounter("publish-events-in-flight");
+    Recorder ackLatency = metrics.createRecorder("publish-events-ack-latency");
 
     ShardedDaemonProcess.get(system)
         .init(
             ProjectionBehavior.Command.class,
             "PublishEventsProjection",
-            ShoppingCart.TAGS.size(),
+            tags.size(),
             index ->
                 ProjectionBehavior.create(
-                    createProjectionFor(system, transactionManager, topic, sendProducer, index)),
+                    createProjectionFor(
+                        system,
+                        transactionManager,
+                        topic,
+                        sendProducer,
+                        inFlight,
+                        ackLatency,
+                        tags.tag(index))),
             ShardedDaemonProcessSettings.create(system),
             Optional.of(ProjectionBehavior.stopMessage()));
   }
@@ -53,22 +78,46 @@ public final class PublishEventsProjection {
     return sendProducer;
   }
 
-  private static AtLeastOnceProjection<Offset, EventEnvelope<ShoppingCart.Event>>
-      createProjectionFor(
-          ActorSystem<?> system,
-          JpaTransactionManager transactionManager,
-          String topic,
-          SendProducer<String, byte[]> sendProducer,
-          int index) {
-    String tag = ShoppingCart.TAGS.get(index);
+  private static Projection<EventEnvelope<ShoppingCart.Event>> createProjectionFor(
+      ActorSystem<?> system,
+      JpaTransactionManager transactionManager,
+      String topic,
+      SendProducer<String, byte[]> sendProducer,
+      Counter inFlight,
+      Recorder ackLatency,
+      String tag) {
     SourceProvider<Offset, EventEnvelope<ShoppingCart.Event>> sourceProvider =
         EventSourcedProvider.eventsByTag(system, JdbcReadJournal.Identifier(), tag);
 
-    return JdbcProjection.atLeastOnceAsync(
-        ProjectionId.of("PublishEventsProjection", tag),
-        sourceProvider,
-        () -> new HibernateJdbcSession(transactionManager),
-        () -> new PublishEventsProjectionHandler(topic, sendProducer),
-        system);
+    ProjectionId projectionId = ProjectionId.of("PublishEventsProjection", tag);
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.publish-events");
+    String mode = settings.getString("mode");
+
+    if (mode.equals("single")) {
+      return JdbcProjection.atLeastOnceAsync(
+          projectionId,
+          sourceProvider,
+          () -> new HibernateJdbcSession(transactionManager),
+          () -> new PublishEventsProjectionHandler(topic, sendProducer),
+          system);
+    } else if (mode.equals("grouped")) {
+      return JdbcProjection.groupedWithinAsync(
+              projectionId,
+              sourceProvider,
+              () -> new HibernateJdbcSession(transactionManager),
+              () ->
+                  new PublishEventsProjectionGroupedHandler(
+                      topic, sendProducer, inFlight, ackLatency),
+              system)
+          .withGroup(
+              settings.getInt("group-after-envelopes"),
+              settings.getDuration("group-after-duration"));
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown publish-events projection mode ["
+              + mode
+              + "], use single, grouped or transactional");
+    }
   }
 }
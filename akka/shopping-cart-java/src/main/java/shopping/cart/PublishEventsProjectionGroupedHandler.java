@@ -0,0 +1,77 @@
+package shopping.cart;
+
+import static akka.Done.done;
+
+import akka.Done;
+import akka.kafka.javadsl.SendProducer;
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.javadsl.Handler;
+import com.lightbend.cinnamon.metric.Counter;
+import com.lightbend.cinnamon.metric.Recorder;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grouped variant of {@link PublishEventsProjectionHandler}. All envelopes of a group are sent
+ * without waiting for the acks of the previous ones, and the group completes, so that the
+ * projection stores the offset of its last envelope, when all of them are acknowledged.
+ *
+ * <p>The records are handed to the producer in envelope order. The events of a cart have the same
+ * key and so go to the same partition, where the idempotent producer keeps them in the order they
+ * were sent, also when sends are retried.
+ *
+ * <p>The number of records that are sent but not acknowledged yet and the time until they are
+ * acknowledged are reported as Cinnamon metrics.
+ */
+public final class PublishEventsProjectionGroupedHandler
+    extends Handler<List<EventEnvelope<ShoppingCart.Event>>> {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final String topic;
+  private final SendProducer<String, byte[]> sendProducer;
+  private final Counter inFlight;
+  private final Recorder ackLatency;
+
+  public PublishEventsProjectionGroupedHandler(
+      String topic,
+      SendProducer<String, byte[]> sendProducer,
+      Counter inFlight,
+      Recorder ackLatency) {
+    this.topic = topic;
+    this.sendProducer = sendProducer;
+    this.inFlight = inFlight;
+    this.ackLatency = ackLatency;
+  }
+
+  @Override
+  public CompletionStage<Done> process(List<EventEnvelope<ShoppingCart.Event>> envelopes) {
+    CompletableFuture<?>[] acks = new CompletableFuture<?>[envelopes.size()];
+    for (int i = 0; i < acks.length; i++) {
+      ShoppingCart.Event event = envelopes.get(i).event();
+      ProducerRecord<String, byte[]> producerRecord =
+          new ProducerRecord<>(
+              topic, event.cartId, PublishEventsProjectionHandler.serialize(event));
+      long sentAt = System.nanoTime();
+      inFlight.increment();
+      acks[i] =
+          sendProducer
+              .send(producerRecord)
+              .whenComplete(
+                  (recordMetadata, exc) -> {
+                    inFlight.decrement();
+                    if (exc == null) ackLatency.record(System.nanoTime() - sentAt);
+                  })
+              .toCompletableFuture();
+    }
+
+    return CompletableFuture.allOf(acks)
+        .thenApply(
+            notUsed -> {
+              logger.debug("Published {} events to topic {}", acks.length, topic);
+              return done();
+            });
+  }
+}
@@ -7,8 +7,12 @@ import akka.Done;
 import akka.kafka.javadsl.SendProducer;
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.javadsl.Handler;
-import com.google.protobuf.Any;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.MessageLite;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletionStage;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
@@ -39,7 +43,7 @@ public final class PublishEventsProjectionHandler
         .send(producerRecord)
         .thenApply(
             recordMetadata -> {
-              logger.info(
+              logger.debug(
                   "Published event [{}] to topic/partition {}/{}",
                   event,
                   topic,
@@ -48,21 +52,36 @@ public final class PublishEventsProjectionHandler
             });
   }
 
-  private static byte[] serialize(ShoppingCart.Event event) {
-    final ByteString protoMessage;
-    final String fullName;
+  // the type urls of the published messages, encoded once
+  private static final byte[] ITEM_ADDED_TYPE_URL =
+      typeUrl(shopping.cart.proto.ItemAdded.getDescriptor());
+  private static final byte[] ITEM_QUANTITY_ADJUSTED_TYPE_URL =
+      typeUrl(shopping.cart.proto.ItemQuantityAdjusted.getDescriptor());
+  private static final byte[] ITEM_REMOVED_TYPE_URL =
+      typeUrl(shopping.cart.proto.ItemRemoved.getDescriptor());
+  private static final byte[] CHECKED_OUT_TYPE_URL =
+      typeUrl(shopping.cart.proto.CheckedOut.getDescriptor());
+
+  private static byte[] typeUrl(Descriptors.Descriptor descriptor) {
+    return ("shopping-cart-service/" + descriptor.getFullName()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  // package-private for the benchmarks
+  static byte[] serialize(ShoppingCart.Event event) {
+    final byte[] typeUrl;
+    final MessageLite protoMessage;
     if (event instanceof ShoppingCart.ItemAdded) {
+      typeUrl = ITEM_ADDED_TYPE_URL;
       ShoppingCart.ItemAdded itemAdded = (ShoppingCart.ItemAdded) event;
       protoMessage =
           shopping.cart.proto.ItemAdded.newBuilder()
               .setCartId(itemAdded.cartId)
               .setItemId(itemAdded.itemId)
               .setQuantity(itemAdded.quantity)
-              .build()
-              .toByteString();
-      fullName = shopping.cart.proto.ItemAdded.getDescriptor().getFullName();
+              .build();
       // end::handler[]
     } else if (event instanceof ShoppingCart.ItemQuantityAdjusted) {
+      typeUrl = ITEM_QUANTITY_ADJUSTED_TYPE_URL;
       ShoppingCart.ItemQuantityAdjusted itemQuantityAdjusted =
           (ShoppingCart.ItemQuantityAdjusted) event;
       protoMessage =
@@ -70,36 +89,50 @@ public final class PublishEventsProjectionHandler
               .setCartId(itemQuantityAdjusted.cartId)
               .setItemId(itemQuantityAdjusted.itemId)
               .setQuantity(itemQuantityAdjusted.newQuantity)
-              .build()
-              .toByteString();
-      fullName = shopping.cart.proto.ItemQuantityAdjusted.getDescriptor().getFullName();
+              .build();
     } else if (event instanceof ShoppingCart.ItemRemoved) {
+      typeUrl = ITEM_REMOVED_TYPE_URL;
       ShoppingCart.ItemRemoved itemRemoved = (ShoppingCart.ItemRemoved) event;
       protoMessage =
           shopping.cart.proto.ItemRemoved.newBuilder()
               .setCartId(itemRemoved.cartId)
               .setItemId(itemRemoved.itemId)
-              .build()
-              .toByteString();
-      fullName = shopping.cart.proto.ItemRemoved.getDescriptor().getFullName();
+              .build();
       // tag::handler[]
     } else if (event instanceof ShoppingCart.CheckedOut) {
+      typeUrl = CHECKED_OUT_TYPE_URL;
       ShoppingCart.CheckedOut checkedOut = (ShoppingCart.CheckedOut) event;
       protoMessage =
-          shopping.cart.proto.CheckedOut.newBuilder()
-              .setCartId(checkedOut.cartId)
-              .build()
-              .toByteString();
-      fullName = shopping.cart.proto.CheckedOut.getDescriptor().getFullName();
+          shopping.cart.proto.CheckedOut.newBuilder().setCartId(checkedOut.cartId).build();
     } else {
       throw new IllegalArgumentException("Unknown event type: " + event.getClass());
     }
     // pack in Any so that type information is included for deserialization
-    return Any.newBuilder()
-        .setValue(protoMessage)
-        .setTypeUrl("shopping-cart-service/" + fullName)
-        .build()
-        .toByteArray(); // <3>
+    return pack(typeUrl, protoMessage); // <3>
+  }
+
+  // The Any messages are written directly into an array of their exact size, which is the same as
+  // Any.newBuilder().setTypeUrl(typeUrl).setValue(value).build().toByteArray() without the
+  // intermediate copies. The fields of Any are type_url = 1 and value = 2, and like in Any an empty
+  // value is left out. The array is handed to the Kafka producer, which keeps it until the record
+  // is sent, so it can't be a reused buffer.
+
+  // package-private for the tests
+  static byte[] pack(byte[] typeUrl, MessageLite value) {
+    boolean hasValue = value.getSerializedSize() > 0;
+    byte[] bytes =
+        new byte
+            [CodedOutputStream.computeByteArraySize(1, typeUrl)
+                + (hasValue ? CodedOutputStream.computeMessageSize(2, value) : 0)];
+    try {
+      CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+      output.writeByteArray(1, typeUrl);
+      if (hasValue) output.writeMessage(2, value);
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes;
   }
 }
 // end::handler[]
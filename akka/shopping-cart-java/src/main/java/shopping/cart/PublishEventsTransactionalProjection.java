@@ -0,0 +1,444 @@
+package shopping.cart;
+
+import static akka.Done.done;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
+import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
+import akka.kafka.ConsumerSettings;
+import akka.kafka.ProducerSettings;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.Sequence;
+import akka.stream.KillSwitches;
+import akka.stream.RestartSettings;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Recorder;
+import com.typesafe.config.Config;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import shopping.cart.repository.HibernateJdbcSession;
+
+/**
+ * Exactly-once variant of the {@link PublishEventsProjection}, used when its mode is {@code
+ * transactional}.
+ *
+ * <p>The events of a tag are read in groups, and each group is published in one Kafka transaction
+ * together with the offset of its last event. The offsets are stored in a compacted Kafka topic
+ * instead of the offset store of Akka Projections, so the events and the offset that says they are
+ * published are committed atomically, and consumers that read with {@code
+ * isolation.level=read_committed} see each event exactly once. The cost of a transaction is shared
+ * by all events of the group.
+ *
+ * <p>The producer of a tag has a {@code transactional.id} that only depends on the tag. When the
+ * publisher of a tag is started, on this or another node, the producer is initialized with that id,
+ * which fences off the producer of a previous instance and aborts its open transaction, and then
+ * the offset is read back from the offsets topic. When publishing fails it's restarted the same
+ * way, with the backoff of {@code akka.projection.restart-backoff}. The offsets of a tag are all
+ * written to the partition of the offsets topic that its key hashes to, so the offsets of the tags
+ * are spread over the partitions, and a restart only reads one of them.
+ *
+ * <p>After each transaction the offset is also saved in the {@code publish_events_offset} table,
+ * which the publisher continues from when there's no offset in the offsets topic, for example when
+ * the topic was recreated, and which the {@link CartRetirement} reads. The offset store of the
+ * at-least-once modes is not used, so the first time this mode is enabled it publishes the events
+ * from the start of the journal, unless the table was filled in with the offsets of those modes,
+ * see ddl-scripts/create_user_tables.sql.
+ */
+public final class PublishEventsTransactionalProjection {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(PublishEventsTransactionalProjection.class);
+
+  static final String PROJECTION_NAME = "PublishEventsProjection";
+
+  /** Stops the publisher of a tag, when it's moved to another node or the node is shut down. */
+  public enum Stop {
+    INSTANCE
+  }
+
+  private PublishEventsTransactionalProjection() {}
+
+  private static Duration offsetsReadTimeout(ActorSystem<?> system) {
+    return system
+        .settings()
+        .config()
+        .getDuration("shopping-cart-service.projections.publish-events.offsets-read-timeout");
+  }
+
+  /**
+   * The offsets in the {@code publish_events_offset} table, which the publisher continues from when
+   * the offsets topic has none, and keeps up to date. The operations block until they are done.
+   */
+  interface ProjectionOffsets {
+    Optional<Offset> read(String tag);
+
+    void save(String tag, Offset offset);
+  }
+
+  /** The offsets in the {@code publish_events_offset} table, also read by the CartRetirement. */
+  static ProjectionOffsets projectionOffsets(JpaTransactionManager transactionManager) {
+    return new JdbcProjectionOffsets(transactionManager);
+  }
+
+  public static void init(
+      ActorSystem<?> system, JpaTransactionManager transactionManager, ProjectionTags tags) {
+    Recorder transactionLatency =
+        CinnamonMetrics.get(Adapter.toClassic(system))
+            .createRecorder("publish-events-transaction-latency");
+    ProjectionOffsets projectionOffsets = projectionOffsets(transactionManager);
+
+    ShardedDaemonProcess.get(system)
+        .init(
+            Stop.class,
+            PROJECTION_NAME,
+            tags.size(),
+            index -> create(system, projectionOffsets, transactionLatency, tags.tag(index)),
+            ShardedDaemonProcessSettings.create(system),
+            Optional.of(Stop.INSTANCE));
+  }
+
+  private static Behavior<Stop> create(
+      ActorSystem<?> system,
+      ProjectionOffsets projectionOffsets,
+      Recorder transactionLatency,
+      String tag) {
+    return Behaviors.setup(
+        context -> {
+          Config config = system.settings().config();
+          Config backoff = config.getConfig("akka.projection.restart-backoff");
+          RestartSettings restartSettings =
+              RestartSettings.create(
+                  backoff.getDuration("min-backoff"),
+                  backoff.getDuration("max-backoff"),
+                  backoff.getDouble("random-factor"));
+          Config settings = config.getConfig("shopping-cart-service.projections.publish-events");
+          JdbcReadJournal readJournal =
+              PersistenceQuery.get(system)
+                  .getReadJournalFor(JdbcReadJournal.class, JdbcReadJournal.Identifier());
+
+          UniqueKillSwitch killSwitch =
+              publishing(
+                      restartSettings,
+                      () ->
+                          TransactionalSession.start(
+                              system, projectionOffsets, transactionLatency, tag),
+                      offset -> readJournal.eventsByTag(tag, offset),
+                      settings,
+                      // producing and reading the offsets is blocking
+                      system.dispatchers().lookup(DispatcherSelector.blocking()))
+                  .viaMat(KillSwitches.single(), Keep.right())
+                  .toMat(Sink.ignore(), Keep.left())
+                  .run(system);
+
+          return Behaviors.receive(Stop.class)
+              .onMessageEquals(
+                  Stop.INSTANCE,
+                  () -> {
+                    killSwitch.shutdown();
+                    return Behaviors.stopped();
+                  })
+              .build();
+        });
+  }
+
+  /**
+   * Publishes the events with a new session when it fails, which continues from the offset of the
+   * last committed transaction. Package-private for the tests.
+   */
+  static Source<Done, NotUsed> publishing(
+      RestartSettings restartSettings,
+      Supplier<TransactionalSession> sessions,
+      Function<Offset, Source<EventEnvelope, NotUsed>> events,
+      Config settings,
+      Executor blocking) {
+    return RestartSource.onFailuresWithBackoff(
+        restartSettings,
+        () ->
+            Source.completionStageSource(
+                    CompletableFuture.supplyAsync(sessions, blocking)
+                        .thenApply(
+                            session ->
+                                events
+                                    .apply(session.offset)
+                                    .groupedWithin(
+                                        settings.getInt("group-after-envelopes"),
+                                        settings.getDuration("group-after-duration"))
+                                    .mapAsync(
+                                        1,
+                                        envelopes ->
+                                            CompletableFuture.supplyAsync(
+                                                () -> session.publish(envelopes), blocking))
+                                    .watchTermination(
+                                        (notUsed, terminated) -> {
+                                          terminated.whenCompleteAsync(
+                                              (d, exc) -> session.close(), blocking);
+                                          return notUsed;
+                                        })))
+                .mapMaterializedValue(notUsed -> NotUsed.getInstance()));
+  }
+
+  /** The transactional producer of a tag, and the offset it continues from. */
+  static final class TransactionalSession {
+    private final Producer<String, byte[]> producer;
+    private final String topic;
+    private final String offsetsTopic;
+    private final int offsetsPartition;
+    private final String tag;
+    private final ProjectionOffsets projectionOffsets;
+    private final Recorder transactionLatency;
+    Offset offset;
+
+    // the producer must be initialized for transactions
+    TransactionalSession(
+        Producer<String, byte[]> producer,
+        String topic,
+        String offsetsTopic,
+        int offsetsPartition,
+        String tag,
+        ProjectionOffsets projectionOffsets,
+        Recorder transactionLatency) {
+      this.producer = producer;
+      this.topic = topic;
+      this.offsetsTopic = offsetsTopic;
+      this.offsetsPartition = offsetsPartition;
+      this.tag = tag;
+      this.projectionOffsets = projectionOffsets;
+      this.transactionLatency = transactionLatency;
+    }
+
+    static String offsetKey(String tag) {
+      return PROJECTION_NAME + "-" + tag;
+    }
+
+    /** The partition of the offsets topic with the offsets of the tag. */
+    static int offsetsPartition(String tag, int partitions) {
+      return Math.floorMod(offsetKey(tag).hashCode(), partitions);
+    }
+
+    static TransactionalSession start(
+        ActorSystem<?> system,
+        ProjectionOffsets projectionOffsets,
+        Recorder transactionLatency,
+        String tag) {
+      Config config = system.settings().config();
+      String topic = config.getString("shopping-cart-service.kafka.topic");
+      String offsetsTopic = config.getString("shopping-cart-service.kafka.offsets-topic");
+      Duration timeout = offsetsReadTimeout(system);
+
+      Producer<String, byte[]> producer =
+          ProducerSettings.create(system, new StringSerializer(), new ByteArraySerializer())
+              .withProperty(
+                  ProducerConfig.TRANSACTIONAL_ID_CONFIG,
+                  "shopping-cart-service-" + offsetKey(tag))
+              .createKafkaProducer();
+      try {
+        int offsetsPartition =
+            offsetsPartition(tag, producer.partitionsFor(offsetsTopic).size());
+        TransactionalSession session =
+            new TransactionalSession(
+                producer,
+                topic,
+                offsetsTopic,
+                offsetsPartition,
+                tag,
+                projectionOffsets,
+                transactionLatency);
+        // fences off the producer of a previous instance, and aborts its open transaction, so
+        // that the offset that is read afterwards is the last committed one
+        producer.initTransactions();
+        Optional<Long> committed;
+        try (Consumer<String, byte[]> consumer =
+            ConsumerSettings.create(system, new StringDeserializer(), new ByteArrayDeserializer())
+                .withProperty(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed")
+                .withProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false")
+                .createKafkaConsumer()) {
+          committed =
+              readCommittedOffset(
+                  consumer,
+                  new TopicPartition(offsetsTopic, offsetsPartition),
+                  offsetKey(tag),
+                  timeout);
+        }
+        session.continueFrom(committed);
+        logger.info("Publishing events of tag {} exactly-once from {}", tag, session.offset);
+        return session;
+      } catch (RuntimeException e) {
+        producer.close(Duration.ofSeconds(5));
+        throw e;
+      }
+    }
+
+    // reads the partition of the tag, from the start since the topic is compacted
+    static Optional<Long> readCommittedOffset(
+        Consumer<String, byte[]> consumer,
+        TopicPartition partition,
+        String offsetKey,
+        Duration timeout) {
+      List<TopicPartition> partitions = Collections.singletonList(partition);
+      consumer.assign(partitions);
+      consumer.seekToBeginning(partitions);
+      long end = consumer.endOffsets(partitions).get(partition);
+      long deadline = System.nanoTime() + timeout.toNanos();
+      Optional<Long> committed = Optional.empty();
+      while (consumer.position(partition) < end) {
+        if (System.nanoTime() > deadline) {
+          throw new RuntimeException(
+              new TimeoutException(
+                  "Reading the offsets topic " + partition + " took longer than " + timeout));
+        }
+        for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(100))) {
+          if (offsetKey.equals(record.key())) {
+            committed = Optional.of(ByteBuffer.wrap(record.value()).getLong());
+          }
+        }
+      }
+      return committed;
+    }
+
+    // the offset in the table is only used when the offsets topic has none
+    void continueFrom(Optional<Long> committed) {
+      if (committed.isPresent()) {
+        offset = Offset.sequence(committed.get());
+      } else {
+        offset = projectionOffsets.read(tag).orElse(Offset.noOffset());
+      }
+    }
+
+    Done publish(List<EventEnvelope> envelopes) {
+      long startedAt = System.nanoTime();
+      producer.beginTransaction();
+      for (EventEnvelope envelope : envelopes) {
+        ShoppingCart.Event event = (ShoppingCart.Event) envelope.event();
+        producer.send(
+            new ProducerRecord<>(
+                topic, event.cartId, PublishEventsProjectionHandler.serialize(event)));
+      }
+      long lastOffset = ((Sequence) envelopes.get(envelopes.size() - 1).offset()).value();
+      producer.send(
+          new ProducerRecord<>(
+              offsetsTopic,
+              offsetsPartition,
+              offsetKey(tag),
+              ByteBuffer.allocate(8).putLong(lastOffset).array()));
+      // fails if any of the sends failed, and then the publisher is restarted
+      producer.commitTransaction();
+      transactionLatency.record(System.nanoTime() - startedAt);
+      offset = Offset.sequence(lastOffset);
+      // behind the offsets topic when it fails, which is only read when the topic has none
+      try {
+        projectionOffsets.save(tag, offset);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to save the projection offset of tag {}", tag, e);
+      }
+      logger.debug(
+          "Published {} events to topic {} in one transaction, up to offset {}",
+          envelopes.size(),
+          topic,
+          lastOffset);
+      return done();
+    }
+
+    void close() {
+      producer.close(Duration.ofSeconds(5));
+    }
+  }
+
+  // the offsets in the publish_events_offset table, see ddl-scripts/create_user_tables.sql
+  private static final class JdbcProjectionOffsets implements ProjectionOffsets {
+    private static final String READ_OFFSET =
+        "SELECT event_offset FROM publish_events_offset WHERE tag = ?";
+
+    private static final String SAVE_OFFSET =
+        "INSERT INTO publish_events_offset (tag, event_offset) VALUES (?, ?) "
+            + "ON CONFLICT (tag) DO UPDATE SET event_offset = EXCLUDED.event_offset";
+
+    private final JpaTransactionManager transactionManager;
+
+    JdbcProjectionOffsets(JpaTransactionManager transactionManager) {
+      this.transactionManager = transactionManager;
+    }
+
+    @Override
+    public Optional<Offset> read(String tag) {
+      return inTransaction(
+          session ->
+              session.withConnection(
+                  connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(READ_OFFSET)) {
+                      statement.setString(1, tag);
+                      try (ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next()
+                            ? Optional.of(Offset.sequence(resultSet.getLong(1)))
+                            : Optional.<Offset>empty();
+                      }
+                    }
+                  }));
+    }
+
+    @Override
+    public void save(String tag, Offset offset) {
+      inTransaction(
+          session ->
+              session.withConnection(
+                  connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(SAVE_OFFSET)) {
+                      statement.setString(1, tag);
+                      statement.setLong(2, ((Sequence) offset).value());
+                      return statement.executeUpdate();
+                    }
+                  }));
+    }
+
+    private <T> T inTransaction(Function<HibernateJdbcSession, T> work) {
+      HibernateJdbcSession session = new HibernateJdbcSession(transactionManager);
+      try {
+        T result = work.apply(session);
+        session.commit();
+        return result;
+      } catch (RuntimeException e) {
+        session.rollback();
+        throw e;
+      } finally {
+        session.close();
+      }
+    }
+  }
+}
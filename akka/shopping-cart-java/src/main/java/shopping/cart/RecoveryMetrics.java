@@ -0,0 +1,92 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.cluster.sharding.typed.HashCodeMessageExtractor;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Counter;
+import com.lightbend.cinnamon.metric.Recorder;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cinnamon metrics of the recoveries of the {@link ShoppingCart}s, tagged with the shard of the
+ * cart, so that the cost of a rebalance shows per shard. The number of shards is bounded by {@code
+ * akka.cluster.sharding.number-of-shards}, and the carts of a shard share its metrics. One instance
+ * is shared by the carts of a node. Recorders are reported as histograms.
+ *
+ * <ul>
+ *   <li>{@code shopping-cart-recovery-time}, from the start of the cart until {@code
+ *       RecoveryCompleted}, in nanoseconds
+ *   <li>{@code shopping-cart-recovery-events-replayed}, the events after the snapshot
+ *   <li>{@code shopping-cart-recovery-state-size}, the serialized size of the recovered state
+ *   <li>{@code shopping-cart-recovery-snapshot-hits} and {@code -misses}, the recoveries with
+ *       events that started from a snapshot or from the first event
+ * </ul>
+ */
+public final class RecoveryMetrics {
+
+  private final CinnamonMetrics metrics;
+  // the message extractor that Cluster Sharding uses for the carts
+  private final HashCodeMessageExtractor<ShoppingCart.Command> extractor;
+  private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+
+  public RecoveryMetrics(ActorSystem<?> system) {
+    metrics = CinnamonMetrics.get(Adapter.toClassic(system));
+    extractor =
+        new HashCodeMessageExtractor<>(
+            system.settings().config().getInt("akka.cluster.sharding.number-of-shards"));
+  }
+
+  /** The metrics of the shard of the cart. */
+  Shard forCart(String cartId) {
+    return forShard(extractor.shardId(cartId));
+  }
+
+  Shard forShard(String shardId) {
+    return shards.computeIfAbsent(shardId, this::createShard);
+  }
+
+  private Shard createShard(String shardId) {
+    Map<String, String> tags = Collections.singletonMap("shard", shardId);
+    return new Shard(
+        metrics.createRecorder("shopping-cart-recovery-time", tags),
+        metrics.createRecorder("shopping-cart-recovery-events-replayed", tags),
+        metrics.createRecorder("shopping-cart-recovery-state-size", tags),
+        metrics.createCounter("shopping-cart-recovery-snapshot-hits", tags),
+        metrics.createCounter("shopping-cart-recovery-snapshot-misses", tags));
+  }
+
+  static final class Shard {
+    private final Recorder recoveryTime;
+    private final Recorder eventsReplayed;
+    private final Recorder stateSize;
+    private final Counter snapshotHits;
+    private final Counter snapshotMisses;
+
+    private Shard(
+        Recorder recoveryTime,
+        Recorder eventsReplayed,
+        Recorder stateSize,
+        Counter snapshotHits,
+        Counter snapshotMisses) {
+      this.recoveryTime = recoveryTime;
+      this.eventsReplayed = eventsReplayed;
+      this.stateSize = stateSize;
+      this.snapshotHits = snapshotHits;
+      this.snapshotMisses = snapshotMisses;
+    }
+
+    void recovered(long recoveryNanos, int replayed, boolean fromSnapshot, int stateBytes) {
+      recoveryTime.record(recoveryNanos);
+      eventsReplayed.record(replayed);
+      stateSize.record(stateBytes);
+      if (fromSnapshot) {
+        snapshotHits.increment();
+      } else if (replayed > 0) {
+        snapshotMisses.increment();
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.CircuitBreaker;
+import akka.pattern.CircuitBreakerOpenException;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.GaugeLong;
+import com.lightbend.cinnamon.metric.Rate;
+import com.typesafe.config.Config;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import shopping.order.proto.OrderBatchRequest;
+import shopping.order.proto.OrderBatchResponse;
+import shopping.order.proto.OrderRequest;
+import shopping.order.proto.OrderResponse;
+import shopping.order.proto.ShoppingOrderService;
+
+/**
+ * Protects the order service, and the projection that calls it, when the order service slows down
+ * or fails.
+ *
+ * <p>The calls go through an {@link AdaptiveConcurrencyLimiter}, which lowers the number of
+ * concurrent calls when they get slow or fail, so that the projection slows down with the order
+ * service. Within the limit the calls go through a {@link CircuitBreaker}, which fails them right
+ * away while the order service keeps failing, until a trial call succeeds again.
+ *
+ * <p>The state of both is reported as Cinnamon metrics: the concurrency limit, the calls in flight
+ * and queued, the state of the circuit breaker (0 closed, 1 half-open, 2 open) and the rate of
+ * calls that were rejected by either of them.
+ */
+public final class ResilientOrderService implements ShoppingOrderService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResilientOrderService.class);
+
+  private static final long CLOSED = 0;
+  private static final long HALF_OPEN = 1;
+  private static final long OPEN = 2;
+
+  private final ShoppingOrderService delegate;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final CircuitBreaker breaker;
+
+  private final GaugeLong limitGauge;
+  private final GaugeLong inFlightGauge;
+  private final GaugeLong queuedGauge;
+  private final Rate rejected;
+
+  public ResilientOrderService(ShoppingOrderService delegate, ActorSystem<?> system) {
+    this.delegate = delegate;
+    Config settings = system.settings().config().getConfig("shopping-order-service.resilience");
+
+    Config limiterSettings = settings.getConfig("concurrency-limit");
+    limiter =
+        new AdaptiveConcurrencyLimiter(
+            limiterSettings.getInt("initial-limit"),
+            limiterSettings.getInt("min-limit"),
+            limiterSettings.getInt("max-limit"),
+            limiterSettings.getDuration("latency-threshold"),
+            limiterSettings.getDouble("backoff-ratio"),
+            limiterSettings.getInt("max-queued"),
+            // fails fast without calling the order service
+            exc -> exc instanceof CircuitBreakerOpenException);
+
+    Config breakerSettings = settings.getConfig("circuit-breaker");
+    breaker =
+        CircuitBreaker.create(
+            Adapter.toClassic(system).scheduler(),
+            breakerSettings.getInt("max-failures"),
+            breakerSettings.getDuration("call-timeout"),
+            breakerSettings.getDuration("reset-timeout"));
+
+    CinnamonMetrics metrics = CinnamonMetrics.get(Adapter.toClassic(system));
+    limitGauge = metrics.createGaugeLong("order-service-concurrency-limit");
+    inFlightGauge = metrics.createGaugeLong("order-service-in-flight");
+    queuedGauge = metrics.createGaugeLong("order-service-queued");
+    rejected = metrics.createRate("order-service-rejected");
+    GaugeLong breakerState = metrics.createGaugeLong("order-service-circuit-breaker-state");
+    breakerState.set(CLOSED);
+    limitGauge.set(limiter.limit());
+
+    breaker
+        .addOnOpenListener(
+            () -> {
+              logger.warn("Order service circuit breaker opened");
+              breakerState.set(OPEN);
+            })
+        .addOnHalfOpenListener(() -> breakerState.set(HALF_OPEN))
+        .addOnCloseListener(
+            () -> {
+              logger.info("Order service circuit breaker closed");
+              breakerState.set(CLOSED);
+            });
+  }
+
+  @Override
+  public CompletionStage<OrderResponse> order(OrderRequest in) {
+    return call(() -> delegate.order(in));
+  }
+
+  @Override
+  public CompletionStage<OrderBatchResponse> orderBatch(OrderBatchRequest in) {
+    return call(() -> delegate.orderBatch(in));
+  }
+
+  private <T> CompletionStage<T> call(Supplier<CompletionStage<T>> call) {
+    CompletionStage<T> result =
+        limiter.submit(() -> breaker.callWithCircuitBreakerCS(call::get));
+    report();
+    return result.whenComplete(
+        (value, exc) -> {
+          Throwable cause = exc instanceof CompletionException ? exc.getCause() : exc;
+          if (cause instanceof CircuitBreakerOpenException
+              || cause instanceof RejectedExecutionException) {
+            rejected.mark();
+          }
+          report();
+        });
+  }
+
+  // package-private for the tests
+  int concurrencyLimit() {
+    return limiter.limit();
+  }
+
+  private void report() {
+    limitGauge.set(limiter.limit());
+    inFlightGauge.set(limiter.inFlight());
+    queuedGauge.set(limiter.queued());
+  }
+}
@@ -0,0 +1,181 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.grpc.GrpcServiceException;
+import com.typesafe.config.Config;
+import io.grpc.Status;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms of the gRPC methods of the {@link ShoppingCartServiceImpl}, per method and
+ * outcome, which are scraped in the Prometheus text format from the {@code /metrics} route of Akka
+ * Management, see {@link RpcMetricsRoute}.
+ *
+ * <p>The latencies are recorded in HdrHistogram {@link Recorder}s, which are created up front for
+ * every method and outcome, so recording a call is a lookup in an array and a wait-free update of
+ * the histogram, without allocating. The quantiles of a scrape are those of the calls since the
+ * previous scrape, and the count and sum are those of all calls.
+ */
+public final class RpcMetrics implements Extension {
+
+  public static final ExtensionId<RpcMetrics> ID =
+      new ExtensionId<RpcMetrics>() {
+        @Override
+        public RpcMetrics createExtension(ActorSystem<?> system) {
+          return new RpcMetrics(system);
+        }
+      };
+
+  public static RpcMetrics get(ActorSystem<?> system) {
+    return ID.get(system);
+  }
+
+  /** The timed gRPC methods, with their names in the scraped metrics. */
+  public enum Method {
+    ADD_ITEM("addItem"),
+    ADD_ITEMS("addItems"),
+    UPDATE_ITEM("updateItem"),
+    CHECKOUT("checkout"),
+    GET_CART("getCart"),
+    GET_ITEM_POPULARITY("getItemPopularity"),
+    GET_ITEM_POPULARITIES("getItemPopularities"),
+    GET_TOP_ITEMS("getTopItems");
+
+    final String label;
+
+    Method(String label) {
+      this.label = label;
+    }
+  }
+
+  /** How a call completed, by the status of its reply. */
+  public enum Outcome {
+    SUCCESS("success"),
+    INVALID_ARGUMENT("INVALID_ARGUMENT"),
+    NOT_FOUND("NOT_FOUND"),
+    UNAVAILABLE("UNAVAILABLE"),
+    OTHER("other");
+
+    final String label;
+
+    Outcome(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final String NAME = "shopping_cart_rpc_latency_seconds";
+  private static final Method[] METHODS = Method.values();
+  private static final Outcome[] OUTCOMES = Outcome.values();
+
+  private final long highestTrackableNanos;
+  private final double[] quantiles;
+  private final Series[][] series;
+
+  private RpcMetrics(ActorSystem<?> system) {
+    Config settings = system.settings().config().getConfig("shopping-cart-service.rpc-metrics");
+    highestTrackableNanos = settings.getDuration("highest-trackable-latency").toNanos();
+    int significantDigits = settings.getInt("significant-digits");
+    List<Double> quantileList = settings.getDoubleList("quantiles");
+    quantiles = new double[quantileList.size()];
+    for (int i = 0; i < quantiles.length; i++) {
+      quantiles[i] = quantileList.get(i);
+    }
+
+    series = new Series[METHODS.length][OUTCOMES.length];
+    for (Method method : METHODS) {
+      for (Outcome outcome : OUTCOMES) {
+        series[method.ordinal()][outcome.ordinal()] =
+            new Series(new Recorder(highestTrackableNanos, significantDigits));
+      }
+    }
+  }
+
+  /** Records a call that was started at {@code startNanos}, and completed with the failure. */
+  public void record(Method method, long startNanos, Throwable failure) {
+    long latency = Math.min(System.nanoTime() - startNanos, highestTrackableNanos);
+    series[method.ordinal()][outcome(failure).ordinal()].recorder.recordValue(latency);
+  }
+
+  static Outcome outcome(Throwable failure) {
+    Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+    if (cause == null) {
+      return Outcome.SUCCESS;
+    } else if (cause instanceof TimeoutException) {
+      return Outcome.UNAVAILABLE;
+    } else if (cause instanceof GrpcServiceException) {
+      Status.Code code = ((GrpcServiceException) cause).getStatus().getCode();
+      switch (code) {
+        case INVALID_ARGUMENT:
+          return Outcome.INVALID_ARGUMENT;
+        case NOT_FOUND:
+          return Outcome.NOT_FOUND;
+        case UNAVAILABLE:
+          return Outcome.UNAVAILABLE;
+        default:
+          return Outcome.OTHER;
+      }
+    } else {
+      return Outcome.OTHER;
+    }
+  }
+
+  /** The histograms in the Prometheus text format, as a summary per method and outcome. */
+  public synchronized String scrape() {
+    StringBuilder out = new StringBuilder();
+    out.append("# HELP ").append(NAME).append(" Latency of the gRPC calls.\n");
+    out.append("# TYPE ").append(NAME).append(" summary\n");
+    for (Method method : METHODS) {
+      for (Outcome outcome : OUTCOMES) {
+        Series s = series[method.ordinal()][outcome.ordinal()];
+        s.interval = s.recorder.getIntervalHistogram(s.interval);
+        s.count += s.interval.getTotalCount();
+        s.sumNanos += s.interval.getMean() * s.interval.getTotalCount();
+        if (s.count == 0) {
+          continue; // never called with this outcome
+        }
+        String labels = "method=\"" + method.label + "\",outcome=\"" + outcome.label + "\"";
+        for (double quantile : quantiles) {
+          out.append(NAME)
+              .append('{')
+              .append(labels)
+              .append(",quantile=\"")
+              .append(quantile)
+              .append("\"} ");
+          if (s.interval.getTotalCount() == 0) {
+            out.append("NaN");
+          } else {
+            out.append(seconds(s.interval.getValueAtPercentile(quantile * 100)));
+          }
+          out.append('\n');
+        }
+        out.append(NAME).append("_count{").append(labels).append("} ").append(s.count);
+        out.append('\n');
+        out.append(NAME).append("_sum{").append(labels).append("} ").append(seconds(s.sumNanos));
+        out.append('\n');
+      }
+    }
+    return out.toString();
+  }
+
+  private static double seconds(double nanos) {
+    return nanos / 1_000_000_000.0;
+  }
+
+  private static final class Series {
+    final Recorder recorder;
+    // reused by the scrapes, which are synchronized
+    Histogram interval;
+    long count;
+    double sumNanos;
+
+    Series(Recorder recorder) {
+      this.recorder = recorder;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package shopping.cart;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.management.javadsl.ManagementRouteProvider;
+import akka.management.javadsl.ManagementRouteProviderSettings;
+
+/**
+ * Serves the {@link RpcMetrics} from {@code GET /metrics} of Akka Management, for Prometheus to
+ * scrape. Registered in {@code akka.management.http.routes}.
+ */
+public final class RpcMetricsRoute extends AllDirectives implements ManagementRouteProvider {
+
+  private final RpcMetrics metrics;
+
+  public RpcMetricsRoute(ExtendedActorSystem system) {
+    metrics = RpcMetrics.get(Adapter.toTyped(system));
+  }
+
+  @Override
+  public Route routes(ManagementRouteProviderSettings settings) {
+    return path(
+        "metrics",
+        () ->
+            get(
+                () ->
+                    complete(
+                        HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, metrics.scrape()))));
+  }
+}
@@ -5,13 +5,14 @@ import akka.cluster.sharding.typed.ShardedDaemonProcessSettings;
 import akka.cluster.sharding.typed.javadsl.ShardedDaemonProcess;
 import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
 import akka.persistence.query.Offset;
+import akka.projection.Projection;
 import akka.projection.ProjectionBehavior;
 import akka.projection.ProjectionId;
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.eventsourced.javadsl.EventSourcedProvider;
-import akka.projection.javadsl.AtLeastOnceProjection;
 import akka.projection.javadsl.SourceProvider;
 import akka.projection.jdbc.javadsl.JdbcProjection;
+import com.typesafe.config.Config;
 import java.util.Optional;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import shopping.cart.repository.HibernateJdbcSession;
@@ -24,34 +25,54 @@ public class SendOrderProjection {
   public static void init(
       ActorSystem<?> system,
       JpaTransactionManager transactionManager,
-      ShoppingOrderService orderService) {
+      ShoppingOrderService orderService,
+      ProjectionTags tags) {
     ShardedDaemonProcess.get(system)
         .init(
             ProjectionBehavior.Command.class,
             "SendOrderProjection",
-            ShoppingCart.TAGS.size(),
+            tags.size(),
             index ->
                 ProjectionBehavior.create(
-                    createProjectionsFor(system, transactionManager, orderService, index)),
+                    createProjectionsFor(
+                        system, transactionManager, orderService, tags.tag(index))),
             ShardedDaemonProcessSettings.create(system),
             Optional.of(ProjectionBehavior.stopMessage()));
   }
 
-  private static AtLeastOnceProjection<Offset, EventEnvelope<ShoppingCart.Event>>
-      createProjectionsFor(
-          ActorSystem<?> system,
-          JpaTransactionManager transactionManager,
-          ShoppingOrderService orderService,
-          int index) {
-    String tag = ShoppingCart.TAGS.get(index);
+  private static Projection<EventEnvelope<ShoppingCart.Event>> createProjectionsFor(
+      ActorSystem<?> system,
+      JpaTransactionManager transactionManager,
+      ShoppingOrderService orderService,
+      String tag) {
     SourceProvider<Offset, EventEnvelope<ShoppingCart.Event>> sourceProvider =
         EventSourcedProvider.eventsByTag(system, JdbcReadJournal.Identifier(), tag);
 
-    return JdbcProjection.atLeastOnceAsync(
-        ProjectionId.of("SendOrderProjection", tag),
-        sourceProvider,
-        () -> new HibernateJdbcSession(transactionManager),
-        () -> new SendOrderProjectionHandler(system, orderService),
-        system);
+    ProjectionId projectionId = ProjectionId.of("SendOrderProjection", tag);
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.send-order");
+    String mode = settings.getString("mode");
+
+    if (mode.equals("single")) {
+      return JdbcProjection.atLeastOnceAsync(
+          projectionId,
+          sourceProvider,
+          () -> new HibernateJdbcSession(transactionManager),
+          () -> new SendOrderProjectionHandler(system, orderService),
+          system);
+    } else if (mode.equals("grouped")) {
+      return JdbcProjection.groupedWithinAsync(
+              projectionId,
+              sourceProvider,
+              () -> new HibernateJdbcSession(transactionManager),
+              () -> new SendOrderProjectionGroupedHandler(system, orderService),
+              system)
+          .withGroup(
+              settings.getInt("group-after-envelopes"),
+              settings.getDuration("group-after-duration"));
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown send-order projection mode [" + mode + "], use single or grouped");
+    }
   }
 }
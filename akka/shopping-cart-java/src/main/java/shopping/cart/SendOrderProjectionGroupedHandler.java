@@ -0,0 +1,140 @@
+package shopping.cart;
+
+import static akka.Done.done;
+
+import akka.Done;
+import akka.actor.Scheduler;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.pattern.Patterns;
+import akka.projection.eventsourced.EventEnvelope;
+import akka.projection.javadsl.Handler;
+import com.typesafe.config.Config;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.ExecutionContext;
+import shopping.order.proto.OrderBatchRequest;
+import shopping.order.proto.OrderBatchResponse;
+import shopping.order.proto.OrderRequest;
+import shopping.order.proto.OrderResult;
+import shopping.order.proto.ShoppingOrderService;
+
+/**
+ * Grouped variant of {@link SendOrderProjectionHandler}. The orders of all checkouts of a group are
+ * sent with a single {@code OrderBatch} call, which accepts or rejects each order on its own.
+ *
+ * <p>The orders that were rejected, or all of them when the call failed, are sent again after
+ * {@code retry-delay}, up to {@code max-retries} times, so the accepted orders are not sent twice.
+ * When there are still rejected orders after that the group fails, and the projection is restarted
+ * from the offset of the previous group.
+ */
+public final class SendOrderProjectionGroupedHandler
+    extends Handler<List<EventEnvelope<ShoppingCart.Event>>> {
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final ClusterSharding sharding;
+  private final Duration timeout;
+  private final ShoppingOrderService orderService;
+  private final Scheduler scheduler;
+  private final ExecutionContext executionContext;
+  private final int maxRetries;
+  private final Duration retryDelay;
+
+  public SendOrderProjectionGroupedHandler(
+      ActorSystem<?> system, ShoppingOrderService orderService) {
+    sharding = ClusterSharding.get(system);
+    timeout = system.settings().config().getDuration("shopping-cart-service.ask-timeout");
+    this.orderService = orderService;
+    scheduler = Adapter.toClassic(system).scheduler();
+    executionContext = system.executionContext();
+    Config settings =
+        system.settings().config().getConfig("shopping-cart-service.projections.send-order");
+    maxRetries = settings.getInt("max-retries");
+    retryDelay = settings.getDuration("retry-delay");
+  }
+
+  @Override
+  public CompletionStage<Done> process(List<EventEnvelope<ShoppingCart.Event>> envelopes) {
+    List<CompletableFuture<OrderRequest>> orderRequests = new ArrayList<>();
+    for (EventEnvelope<ShoppingCart.Event> envelope : envelopes) {
+      if (envelope.event() instanceof ShoppingCart.CheckedOut) {
+        ShoppingCart.CheckedOut checkout = (ShoppingCart.CheckedOut) envelope.event();
+        orderRequests.add(
+            SendOrderProjectionHandler.orderRequest(sharding, timeout, checkout)
+                .toCompletableFuture());
+      }
+    }
+    if (orderRequests.isEmpty()) {
+      return CompletableFuture.completedFuture(done());
+    }
+
+    return CompletableFuture.allOf(orderRequests.toArray(new CompletableFuture<?>[0]))
+        .thenCompose(
+            notUsed -> {
+              List<OrderRequest> orders = new ArrayList<>(orderRequests.size());
+              for (CompletableFuture<OrderRequest> orderRequest : orderRequests) {
+                orders.add(orderRequest.join());
+              }
+              log.info("Sending {} orders in one batch.", orders.size());
+              return sendOrders(orders, 0);
+            });
+  }
+
+  private CompletionStage<Done> sendOrders(List<OrderRequest> orders, int retries) {
+    return orderService
+        .orderBatch(OrderBatchRequest.newBuilder().addAllOrders(orders).build())
+        .handle((response, exc) -> failedOrders(orders, response, exc))
+        .thenCompose(
+            failed -> {
+              if (failed.isEmpty()) {
+                return CompletableFuture.completedFuture(done());
+              } else if (retries >= maxRetries) {
+                return CompletableFuture.failedFuture(
+                    new IllegalStateException(
+                        failed.size()
+                            + " of the orders were still rejected after "
+                            + retries
+                            + " retries"));
+              } else {
+                log.warn(
+                    "{} of {} orders were rejected, retrying them in {}.",
+                    failed.size(),
+                    orders.size(),
+                    retryDelay);
+                return Patterns.after(
+                    retryDelay,
+                    scheduler,
+                    executionContext,
+                    () -> sendOrders(failed, retries + 1));
+              }
+            });
+  }
+
+  // the orders that were not accepted, all of them when the call itself failed
+  private List<OrderRequest> failedOrders(
+      List<OrderRequest> orders, OrderBatchResponse response, Throwable exc) {
+    if (exc != null) {
+      log.warn("Sending {} orders failed: {}", orders.size(), exc.toString());
+      return orders;
+    }
+    List<OrderRequest> failed = new ArrayList<>();
+    for (int i = 0; i < orders.size(); i++) {
+      // an order without a result wasn't processed
+      if (i >= response.getResultsCount()) {
+        failed.add(orders.get(i));
+      } else {
+        OrderResult result = response.getResults(i);
+        if (!result.getOk()) {
+          failed.add(orders.get(i));
+        }
+      }
+    }
+    return failed;
+  }
+}
@@ -9,10 +9,8 @@ import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.projection.eventsourced.EventEnvelope;
 import akka.projection.javadsl.Handler;
 import java.time.Duration;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import shopping.order.proto.Item;
@@ -45,25 +43,37 @@ public final class SendOrderProjectionHandler extends Handler<EventEnvelope<Shop
   }
 
   private CompletionStage<Done> sendOrder(ShoppingCart.CheckedOut checkout) {
+    return orderRequest(sharding, timeout, checkout)
+        .thenCompose(
+            orderRequest -> { // <2>
+              log.info(
+                  "Sending order of {} items for cart {}.",
+                  orderRequest.getItemsCount(),
+                  checkout.cartId);
+              return orderService.order(orderRequest).thenApply(response -> done()); // <3>
+            });
+  }
+
+  /** The order of the items that were checked out. */
+  static CompletionStage<OrderRequest> orderRequest(
+      ClusterSharding sharding, Duration timeout, ShoppingCart.CheckedOut checkout) {
+    if (!checkout.items.isEmpty()) {
+      return CompletableFuture.completedFuture(orderRequest(checkout.cartId, checkout.items));
+    }
+    // the event was stored before the items were included in it, so ask the cart for them
     EntityRef<ShoppingCart.Command> entityRef =
         sharding.entityRefFor(ShoppingCart.ENTITY_KEY, checkout.cartId);
     CompletionStage<ShoppingCart.Summary> reply =
         entityRef.ask(replyTo -> new ShoppingCart.Get(replyTo), timeout);
-    return reply.thenCompose(
-        cart -> { // <2>
-          List<Item> protoItems =
-              cart.items.entrySet().stream()
-                  .map(
-                      entry ->
-                          Item.newBuilder()
-                              .setItemId(entry.getKey())
-                              .setQuantity(entry.getValue())
-                              .build())
-                  .collect(Collectors.toList());
-          log.info("Sending order of {} items for cart {}.", cart.items.size(), checkout.cartId);
-          OrderRequest orderRequest =
-              OrderRequest.newBuilder().setCartId(checkout.cartId).addAllItems(protoItems).build();
-          return orderService.order(orderRequest).thenApply(response -> done()); // <3>
-        });
+    return reply.thenApply(cart -> orderRequest(checkout.cartId, cart.items));
+  }
+
+  private static OrderRequest orderRequest(String cartId, ItemQuantities items) {
+    OrderRequest.Builder orderRequest = OrderRequest.newBuilder().setCartId(cartId);
+    for (int i = 0; i < items.size(); i++) {
+      orderRequest.addItems(
+          Item.newBuilder().setItemId(items.itemIdAt(i)).setQuantity(items.quantityAt(i)));
+    }
+    return orderRequest.build();
   }
 }
@@ -1,17 +1,28 @@
 package shopping.cart;
 
+import akka.Done;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.Adapter;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import akka.pattern.StatusReply;
+import akka.persistence.typed.DeleteEventsCompleted;
+import akka.persistence.typed.DeleteEventsFailed;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.SnapshotAdapter;
+import akka.persistence.typed.SnapshotFailed;
 import akka.persistence.typed.javadsl.*;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Rate;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
@@ -38,40 +49,65 @@ public final class ShoppingCart
   /** The current state held by the `EventSourcedBehavior`. */
   // tag::state[]
   static final class State implements CborSerializable {
-    final Map<String, Integer> items;
+    // updated in place, so that replaying the events doesn't copy the items for every event
+    @JsonIgnore private final ItemQuantities.Builder items;
     private Optional<Instant> checkoutDate;
 
     public State() {
-      this(new HashMap<>(), Optional.empty());
+      this(ItemQuantities.EMPTY, Optional.empty());
     }
 
+    // the items of snapshots are read as a plain map
+    @JsonCreator
     public State(Map<String, Integer> items, Optional<Instant> checkoutDate) {
-      this.items = items;
+      this.items = new ItemQuantities.Builder(ItemQuantities.copyOf(items));
       this.checkoutDate = checkoutDate;
     }
 
+    /** The items, which are only copied when they changed since they were read the last time. */
+    @JsonProperty("items")
+    ItemQuantities items() {
+      return items.build();
+    }
+
+    int numberOfItems() {
+      return items.size();
+    }
+
     public boolean isCheckedOut() {
       return checkoutDate.isPresent();
     }
 
+    Optional<Instant> checkoutDate() {
+      return checkoutDate;
+    }
+
+    /**
+     * A copy for the snapshot store, which serializes it on another thread while the event handler
+     * keeps changing this state. It shares the items until this state changes them.
+     */
+    State snapshot() {
+      return new State(items.build(), checkoutDate);
+    }
+
     public State checkout(Instant now) {
       checkoutDate = Optional.of(now);
       return this;
     }
 
     public Summary toSummary() {
-      return new Summary(items, isCheckedOut());
+      return new Summary(items.build(), isCheckedOut());
     }
 
     public boolean hasItem(String itemId) {
-      return items.containsKey(itemId);
+      return items.contains(itemId);
     }
 
     public State updateItem(String itemId, int quantity) {
       if (quantity == 0) {
         items.remove(itemId);
       } else {
-        items.put(itemId, quantity);
+        items.set(itemId, quantity);
       }
       return this;
     }
@@ -87,7 +123,7 @@ public final class ShoppingCart
     }
 
     public int itemCount(String itemId) {
-      return items.get(itemId);
+      return items.quantity(itemId);
     }
   }
   // end::state[]
@@ -113,6 +149,22 @@ public final class ShoppingCart
     }
   }
 
+  /**
+   * A command to add several items to the cart at once. Either all items are added, with a single
+   * journal write, or none of them.
+   *
+   * <p>It replies with `StatusReply&lt;Summary&gt;`, like {@link AddItem}.
+   */
+  public static final class AddItems implements Command {
+    final Map<String, Integer> items;
+    final ActorRef<StatusReply<Summary>> replyTo;
+
+    public AddItems(Map<String, Integer> items, ActorRef<StatusReply<Summary>> replyTo) {
+      this.items = items;
+      this.replyTo = replyTo;
+    }
+  }
+
   /** A command to remove an item from the cart. */
   public static final class RemoveItem implements Command {
     final String itemId;
@@ -157,14 +209,28 @@ public final class ShoppingCart
     }
   }
 
+  /**
+   * A command from the {@link CartRetirement} to compact a checked out cart to a snapshot, only
+   * handled by the {@link #retiring} cart. It replies once the events before the snapshot are
+   * deleted.
+   */
+  public static final class Retire implements Command {
+    final ActorRef<StatusReply<Done>> replyTo;
+
+    @JsonCreator
+    public Retire(ActorRef<StatusReply<Done>> replyTo) {
+      this.replyTo = replyTo;
+    }
+  }
+
   /** Summary of the shopping cart state, used in reply messages. */
   public static final class Summary implements CborSerializable {
-    final Map<String, Integer> items;
+    final ItemQuantities items;
     final boolean checkedOut;
 
     public Summary(Map<String, Integer> items, boolean checkedOut) {
-      // defensive copy since items is a mutable object
-      this.items = new HashMap<>(items);
+      // no copy when the items are the immutable items of the cart state
+      this.items = ItemQuantities.copyOf(items);
       this.checkedOut = checkedOut;
     }
   }
@@ -276,10 +342,14 @@ public final class ShoppingCart
 
   static final class CheckedOut extends Event {
     final Instant eventTime;
+    // the items of the cart when it was checked out, so that the order can be sent without
+    // asking the cart for them, empty in the events that were stored before they were included
+    final ItemQuantities items;
 
-    public CheckedOut(String cartId, Instant eventTime) {
+    public CheckedOut(String cartId, Instant eventTime, Map<String, Integer> items) {
       super(cartId);
       this.eventTime = eventTime;
+      this.items = items == null ? ItemQuantities.EMPTY : ItemQuantities.copyOf(items);
     }
 
     @Override
@@ -287,12 +357,39 @@ public final class ShoppingCart
       if (this == o) return true;
       if (o == null || getClass() != o.getClass()) return false;
       CheckedOut that = (CheckedOut) o;
-      return Objects.equals(eventTime, that.eventTime);
+      return Objects.equals(eventTime, that.eventTime) && items.equals(that.items);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(eventTime, items);
+    }
+  }
+
+  /**
+   * The last event of a retired cart, which is kept when the events before it are deleted. It isn't
+   * tagged, so the projections don't see it.
+   */
+  static final class CartRetired extends Event {
+    // so that the cart stays checked out even when it's replayed from this event alone
+    final Instant checkoutDate;
+
+    public CartRetired(String cartId, Instant checkoutDate) {
+      super(cartId);
+      this.checkoutDate = checkoutDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      CartRetired that = (CartRetired) o;
+      return cartId.equals(that.cartId) && checkoutDate.equals(that.checkoutDate);
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(eventTime);
+      return Objects.hash(cartId, checkoutDate);
     }
   }
 
@@ -300,52 +397,203 @@ public final class ShoppingCart
       EntityTypeKey.create(Command.class, "ShoppingCart");
 
   // tag::tagging[]
-  static final List<String> TAGS =
-      Collections.unmodifiableList(
-          Arrays.asList("carts-0", "carts-1", "carts-2", "carts-3", "carts-4"));
-
   // tag::howto-write-side-without-role[]
-  public static void init(ActorSystem<?> system) {
+  public static void init(ActorSystem<?> system, ProjectionTags tags) {
+    SnapshotPolicy snapshotPolicy = new SnapshotPolicy(system);
+    RecoveryMetrics recoveryMetrics = new RecoveryMetrics(system);
+    // the rate of written events per tag shows how evenly the carts are spread
+    Map<String, Rate> eventsPerTag = new HashMap<>();
+    for (int i = 0; i < tags.size(); i++) {
+      eventsPerTag.put(tags.tag(i), eventsRate(system, tags.tag(i)));
+    }
     ClusterSharding.get(system)
         .init(
             Entity.of(
                 ENTITY_KEY,
                 entityContext -> {
-                  int i = Math.abs(entityContext.getEntityId().hashCode() % TAGS.size());
-                  String selectedTag = TAGS.get(i);
-                  return ShoppingCart.create(entityContext.getEntityId(), selectedTag);
+                  String selectedTag = tags.tagFor(entityContext.getEntityId());
+                  return ShoppingCart.create(
+                      entityContext.getEntityId(),
+                      selectedTag,
+                      eventsPerTag.get(selectedTag),
+                      Optional.of(entityContext.getShard()),
+                      snapshotPolicy,
+                      recoveryMetrics);
                 }));
   }
   // end::howto-write-side-without-role[]
   // end::tagging[]
 
+  // outside of Cluster Sharding, for the tests, which share the SnapshotPolicy and RecoveryMetrics
+  // like the carts of a node do
+  public static Behavior<Command> create(
+      String cartId,
+      String projectionTag,
+      SnapshotPolicy snapshotPolicy,
+      RecoveryMetrics recoveryMetrics) {
+    return Behaviors.setup(
+        ctx ->
+            create(
+                cartId,
+                projectionTag,
+                eventsRate(ctx.getSystem(), projectionTag),
+                Optional.empty(),
+                snapshotPolicy,
+                recoveryMetrics));
+  }
+
   // tag::withTagger[]
-  public static Behavior<Command> create(String cartId, String projectionTag) {
+  static Behavior<Command> create(
+      String cartId,
+      String projectionTag,
+      Rate eventsPerTag,
+      Optional<ActorRef<ClusterSharding.ShardCommand>> shard,
+      SnapshotPolicy snapshotPolicy,
+      RecoveryMetrics recoveryMetrics) {
     return Behaviors.setup(
-        ctx -> EventSourcedBehavior.start(new ShoppingCart(cartId, projectionTag), ctx));
+        ctx -> {
+          Runnable passivate =
+              () -> shard.ifPresent(s -> s.tell(new ClusterSharding.Passivate<>(ctx.getSelf())));
+          return EventSourcedBehavior.start(
+              new ShoppingCart(
+                  cartId,
+                  projectionTag,
+                  eventsPerTag,
+                  snapshotPolicy,
+                  recoveryMetrics.forCart(cartId),
+                  passivate,
+                  false),
+              ctx);
+        });
+  }
+
+  /**
+   * The cart as it's retired by the {@link CartRetirement}, outside of Cluster Sharding. The cart
+   * of Cluster Sharding doesn't persist anything once it's checked out, so this one is the only
+   * writer of the {@link CartRetired} event. Its retention criteria snapshot the cart at that event
+   * and delete the events before it through the journal.
+   */
+  static Behavior<Command> retiring(
+      String cartId,
+      String projectionTag,
+      SnapshotPolicy snapshotPolicy,
+      RecoveryMetrics recoveryMetrics) {
+    return Behaviors.setup(
+        ctx ->
+            EventSourcedBehavior.start(
+                new ShoppingCart(
+                    cartId,
+                    projectionTag,
+                    eventsRate(ctx.getSystem(), projectionTag),
+                    snapshotPolicy,
+                    recoveryMetrics.forCart(cartId),
+                    () -> {},
+                    true),
+                ctx));
+  }
+
+  private static Rate eventsRate(ActorSystem<?> system, String projectionTag) {
+    return CinnamonMetrics.get(Adapter.toClassic(system))
+        .createRate("shopping-cart-events", Collections.singletonMap("tag", projectionTag));
   }
 
   private final String projectionTag;
 
   private final String cartId;
 
-  private ShoppingCart(String cartId, String projectionTag) {
+  private final Rate eventsPerTag;
+
+  private final SnapshotPolicy snapshotPolicy;
+
+  private final RecoveryMetrics.Shard recoveryMetrics;
+
+  private final Runnable passivate;
+
+  // only persists the CartRetired event, see retiring
+  private final boolean retiring;
+
+  // replied to when the events before the CartRetired event are deleted
+  private ActorRef<StatusReply<Done>> retireReplyTo;
+
+  // the events that are replayed or persisted since the last snapshot
+  private int eventsSinceSnapshot;
+
+  private final long startedAt = System.nanoTime();
+
+  // when the first event after the snapshot was replayed, 0 when there is none
+  private long firstReplayedAt;
+
+  private boolean recovered;
+
+  private boolean recoveredFromSnapshot;
+
+  // package-private for the benchmarks, use create otherwise
+  ShoppingCart(
+      String cartId,
+      String projectionTag,
+      Rate eventsPerTag,
+      SnapshotPolicy snapshotPolicy,
+      RecoveryMetrics.Shard recoveryMetrics) {
+    this(cartId, projectionTag, eventsPerTag, snapshotPolicy, recoveryMetrics, () -> {}, false);
+  }
+
+  private ShoppingCart(
+      String cartId,
+      String projectionTag,
+      Rate eventsPerTag,
+      SnapshotPolicy snapshotPolicy,
+      RecoveryMetrics.Shard recoveryMetrics,
+      Runnable passivate,
+      boolean retiring) {
     super(
         PersistenceId.of(ENTITY_KEY.name(), cartId),
         SupervisorStrategy.restartWithBackoff(Duration.ofMillis(200), Duration.ofSeconds(5), 0.1));
     this.cartId = cartId;
     this.projectionTag = projectionTag;
+    this.eventsPerTag = eventsPerTag;
+    this.snapshotPolicy = snapshotPolicy;
+    this.recoveryMetrics = recoveryMetrics;
+    this.passivate = passivate;
+    this.retiring = retiring;
   }
 
   @Override
   public Set<String> tagsFor(Event event) { // <1>
+    if (event instanceof CartRetired) {
+      // not projected, it doesn't change the cart
+      return Collections.emptySet();
+    }
+    // only called for events that are persisted, not when they are replayed
+    eventsPerTag.mark();
     return Collections.singleton(projectionTag);
   }
   // end::withTagger[]
 
   @Override
   public RetentionCriteria retentionCriteria() {
-    return RetentionCriteria.snapshotEvery(100, 3);
+    if (retiring) {
+      // a snapshot of every event, the CartRetired event, after which the events before it are
+      // deleted
+      return RetentionCriteria.snapshotEvery(1, 1).withDeleteEventsOnSnapshot();
+    }
+    return snapshotPolicy.retentionCriteria();
+  }
+
+  @Override
+  public boolean shouldSnapshot(State state, Event event, long sequenceNr) {
+    if (retiring) {
+      // taken because of the retentionCriteria
+      return false;
+    } else if (sequenceNr % snapshotPolicy.maxEvents() == 0) {
+      // taken because of the retentionCriteria
+      eventsSinceSnapshot = 0;
+      return false;
+    } else if (snapshotPolicy.shouldSnapshot(event, eventsSinceSnapshot, state.numberOfItems())) {
+      eventsSinceSnapshot = 0;
+      return true;
+    } else {
+      return false;
+    }
   }
 
   @Override
@@ -362,9 +610,17 @@ public final class ShoppingCart
     return newCommandHandlerWithReplyBuilder()
         .forState(state -> !state.isCheckedOut())
         .onCommand(AddItem.class, this::onAddItem)
+        .onCommand(AddItems.class, this::onAddItems)
         .onCommand(RemoveItem.class, this::onRemoveItem)
         .onCommand(AdjustItemQuantity.class, this::onAdjustItemQuantity)
-        .onCommand(Checkout.class, this::onCheckout);
+        .onCommand(Checkout.class, this::onCheckout)
+        .onCommand(
+            Retire.class,
+            cmd ->
+                Effect()
+                    .reply(
+                        cmd.replyTo,
+                        StatusReply.error("Can't retire a shopping cart that isn't checked out")));
   }
 
   private ReplyEffect<Event, State> onAddItem(State state, AddItem cmd) {
@@ -383,17 +639,59 @@ public final class ShoppingCart
     }
   }
 
+  private ReplyEffect<Event, State> onAddItems(State state, AddItems cmd) {
+    if (cmd.items.isEmpty()) {
+      return Effect().reply(cmd.replyTo, StatusReply.error("No items to add"));
+    }
+    // validate all items before persisting anything, so that the items are added atomically
+    List<Event> events = new ArrayList<>(cmd.items.size());
+    for (Map.Entry<String, Integer> item : cmd.items.entrySet()) {
+      String itemId = item.getKey();
+      int quantity = item.getValue();
+      if (state.hasItem(itemId)) {
+        return Effect()
+            .reply(
+                cmd.replyTo,
+                StatusReply.error("Item '" + itemId + "' was already added to this shopping cart"));
+      } else if (quantity <= 0) {
+        return Effect()
+            .reply(
+                cmd.replyTo,
+                StatusReply.error(
+                    "Quantity of item '" + itemId + "' must be greater than zero"));
+      }
+      events.add(new ItemAdded(cartId, itemId, quantity));
+    }
+    return Effect()
+        .persist(events)
+        .thenReply(cmd.replyTo, updatedCart -> StatusReply.success(updatedCart.toSummary()));
+  }
+
   private ReplyEffect<Event, State> onCheckout(State state, Checkout cmd) {
     if (state.isEmpty()) {
       return Effect()
           .reply(cmd.replyTo, StatusReply.error("Cannot checkout an empty shopping cart"));
     } else {
       return Effect()
-          .persist(new CheckedOut(cartId, Instant.now()))
+          .persist(new CheckedOut(cartId, Instant.now(), state.items()))
+          // a checked out cart is read-only, so it's not kept until it has been idle for a while
+          .thenRun(updatedCart -> passivate.run())
           .thenReply(cmd.replyTo, updatedCart -> StatusReply.success(updatedCart.toSummary()));
     }
   }
 
+  private ReplyEffect<Event, State> onRetire(State state, Retire cmd) {
+    if (!retiring) {
+      return Effect()
+          .reply(
+              cmd.replyTo, StatusReply.error("Only the retiring shopping cart can be retired"));
+    }
+    retireReplyTo = cmd.replyTo;
+    // the snapshot after the CartRetired event replaces all events before it, replied to by the
+    // signalHandler when they are deleted
+    return Effect().persist(new CartRetired(cartId, state.checkoutDate().get())).thenNoReply();
+  }
+
   private ReplyEffect<Event, State> onRemoveItem(State state, RemoveItem cmd) {
     if (state.hasItem(cmd.itemId)) {
       return Effect()
@@ -439,6 +737,14 @@ public final class ShoppingCart
                         cmd.replyTo,
                         StatusReply.error(
                             "Can't add an item to an already checked out shopping cart")))
+        .onCommand(
+            AddItems.class,
+            cmd ->
+                Effect()
+                    .reply(
+                        cmd.replyTo,
+                        StatusReply.error(
+                            "Can't add items to an already checked out shopping cart")))
         .onCommand(
             RemoveItem.class,
             cmd ->
@@ -461,7 +767,8 @@ public final class ShoppingCart
                 Effect()
                     .reply(
                         cmd.replyTo,
-                        StatusReply.error("Can't checkout already checked out shopping cart")));
+                        StatusReply.error("Can't checkout already checked out shopping cart")))
+        .onCommand(Retire.class, this::onRetire);
   }
 
   private CommandHandlerWithReplyBuilderByState<Command, Event, State, State> getCommandHandler() {
@@ -474,12 +781,86 @@ public final class ShoppingCart
   public EventHandler<State, Event> eventHandler() {
     return newEventHandlerBuilder()
         .forAnyState()
-        .onEvent(ItemAdded.class, (state, evt) -> state.updateItem(evt.itemId, evt.quantity))
-        .onEvent(ItemRemoved.class, (state, evt) -> state.removeItem(evt.itemId))
-        .onEvent(
-            ItemQuantityAdjusted.class,
-            (state, evt) -> state.updateItem(evt.itemId, evt.newQuantity))
-        .onEvent(CheckedOut.class, (state, evt) -> state.checkout(evt.eventTime))
+        .onAnyEvent(
+            (state, event) -> {
+              if (!recovered && eventsSinceSnapshot == 0) {
+                firstReplayedAt = System.nanoTime();
+              }
+              eventsSinceSnapshot++;
+              return applyEvent(state, event);
+            });
+  }
+
+  /**
+   * Applies the event to the state, in place. Also used by the {@link CartViewProjectionHandler},
+   * so that the cart views go through the same changes as the carts.
+   */
+  static State applyEvent(State state, Event event) {
+    if (event instanceof ItemAdded) {
+      ItemAdded added = (ItemAdded) event;
+      return state.updateItem(added.itemId, added.quantity);
+    } else if (event instanceof ItemRemoved) {
+      return state.removeItem(((ItemRemoved) event).itemId);
+    } else if (event instanceof ItemQuantityAdjusted) {
+      ItemQuantityAdjusted adjusted = (ItemQuantityAdjusted) event;
+      return state.updateItem(adjusted.itemId, adjusted.newQuantity);
+    } else if (event instanceof CheckedOut) {
+      return state.checkout(((CheckedOut) event).eventTime);
+    } else if (event instanceof CartRetired) {
+      return state.checkout(((CartRetired) event).checkoutDate);
+    } else {
+      throw new IllegalArgumentException("Unknown event " + event.getClass());
+    }
+  }
+
+  @Override
+  public SnapshotAdapter<State> snapshotAdapter() {
+    // the state is changed in place, so the snapshot store gets a copy, and the recovery tells
+    // whether the cart was recovered from a snapshot
+    return new SnapshotAdapter<State>() {
+      @Override
+      public Object toJournal(State state) {
+        return state.snapshot();
+      }
+
+      @Override
+      public State fromJournal(Object from) {
+        recoveredFromSnapshot = true;
+        return (State) from;
+      }
+    };
+  }
+
+  @Override
+  public SignalHandler<State> signalHandler() {
+    return newSignalHandlerBuilder()
+        .onSignal(
+            RecoveryCompleted.class,
+            (state, signal) -> {
+              recovered = true;
+              long now = System.nanoTime();
+              long recoveryNanos = now - startedAt;
+              if (eventsSinceSnapshot > 0) {
+                // without loading the snapshot and the first round trip of the events query
+                snapshotPolicy.recovered(now - firstReplayedAt, eventsSinceSnapshot);
+              }
+              recoveryMetrics.recovered(
+                  recoveryNanos,
+                  eventsSinceSnapshot,
+                  recoveredFromSnapshot,
+                  ShoppingCartSerializer.toProto(state).getSerializedSize());
+            })
+        .onSignal(DeleteEventsCompleted.class, (state, signal) -> retired(null))
+        .onSignal(DeleteEventsFailed.class, (state, signal) -> retired(signal.getFailure()))
+        .onSignal(SnapshotFailed.class, (state, signal) -> retired(signal.getFailure()))
         .build();
   }
+
+  private void retired(Throwable failure) {
+    if (retireReplyTo != null) {
+      if (failure == null) retireReplyTo.tell(StatusReply.ack());
+      else retireReplyTo.tell(StatusReply.error(failure));
+      retireReplyTo = null;
+    }
+  }
 }
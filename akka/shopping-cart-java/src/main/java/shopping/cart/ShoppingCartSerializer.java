@@ -0,0 +1,232 @@
+package shopping.cart;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.SerializerWithStringManifest;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import java.io.NotSerializableException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import shopping.cart.proto.CartItem;
+import shopping.cart.proto.CartState;
+import shopping.cart.proto.journal.CheckedOutItem;
+
+/**
+ * Serializes the {@link ShoppingCart} events and state snapshots to the protobuf messages of
+ * ShoppingCartJournal.proto and ShoppingCartState.proto, which are smaller and cheaper to write and
+ * read than the Jackson CBOR representation of the same classes.
+ *
+ * <p>The journal messages are not the published messages of ShoppingCartEvents.proto, which {@link
+ * PublishEventsProjectionHandler} maps the events to, so the journal can have fields that are not
+ * published.
+ *
+ * <p>Events and snapshots that were stored before this serializer was bound are still read with the
+ * Jackson CBOR serializer, since the journal keeps the serializer id and manifest of every row.
+ *
+ * <p>The serializer is always registered, so that every node can read the protobuf messages, but
+ * it's only bound for writing with {@code shopping-cart-service.serialization.write-with}, once
+ * all nodes run a version that can read them, see serialization.conf.
+ */
+public final class ShoppingCartSerializer extends SerializerWithStringManifest {
+
+  private static final String ITEM_ADDED_MANIFEST = "A";
+  private static final String ITEM_REMOVED_MANIFEST = "R";
+  private static final String ITEM_QUANTITY_ADJUSTED_MANIFEST = "Q";
+  private static final String CHECKED_OUT_MANIFEST = "C";
+  private static final String CART_RETIRED_MANIFEST = "X";
+  private static final String STATE_MANIFEST = "S";
+
+  /**
+   * The journal manifests of the events that {@link ShoppingCart#tagsFor} doesn't tag, so that the
+   * projections never see them, both the ones of this serializer and the class names that the
+   * Jackson serializer uses.
+   */
+  public static final List<String> UNTAGGED_EVENT_MANIFESTS =
+      Collections.unmodifiableList(
+          Arrays.asList(CART_RETIRED_MANIFEST, ShoppingCart.CartRetired.class.getName()));
+
+  public ShoppingCartSerializer(ExtendedActorSystem system) {}
+
+  @Override
+  public int identifier() {
+    return 6301;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof ShoppingCart.ItemAdded) return ITEM_ADDED_MANIFEST;
+    else if (o instanceof ShoppingCart.ItemRemoved) return ITEM_REMOVED_MANIFEST;
+    else if (o instanceof ShoppingCart.ItemQuantityAdjusted) return ITEM_QUANTITY_ADJUSTED_MANIFEST;
+    else if (o instanceof ShoppingCart.CheckedOut) return CHECKED_OUT_MANIFEST;
+    else if (o instanceof ShoppingCart.CartRetired) return CART_RETIRED_MANIFEST;
+    else if (o instanceof ShoppingCart.State) return STATE_MANIFEST;
+    else throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    if (o instanceof ShoppingCart.ItemAdded) {
+      ShoppingCart.ItemAdded itemAdded = (ShoppingCart.ItemAdded) o;
+      return shopping.cart.proto.journal.ItemAdded.newBuilder()
+          .setCartId(itemAdded.cartId)
+          .setItemId(itemAdded.itemId)
+          .setQuantity(itemAdded.quantity)
+          .build()
+          .toByteArray();
+    } else if (o instanceof ShoppingCart.ItemRemoved) {
+      ShoppingCart.ItemRemoved itemRemoved = (ShoppingCart.ItemRemoved) o;
+      return shopping.cart.proto.journal.ItemRemoved.newBuilder()
+          .setCartId(itemRemoved.cartId)
+          .setItemId(itemRemoved.itemId)
+          .setOldQuantity(itemRemoved.oldQuantity)
+          .build()
+          .toByteArray();
+    } else if (o instanceof ShoppingCart.ItemQuantityAdjusted) {
+      ShoppingCart.ItemQuantityAdjusted itemQuantityAdjusted =
+          (ShoppingCart.ItemQuantityAdjusted) o;
+      return shopping.cart.proto.journal.ItemQuantityAdjusted.newBuilder()
+          .setCartId(itemQuantityAdjusted.cartId)
+          .setItemId(itemQuantityAdjusted.itemId)
+          .setQuantity(itemQuantityAdjusted.newQuantity)
+          .setOldQuantity(itemQuantityAdjusted.oldQuantity)
+          .build()
+          .toByteArray();
+    } else if (o instanceof ShoppingCart.CheckedOut) {
+      ShoppingCart.CheckedOut checkedOut = (ShoppingCart.CheckedOut) o;
+      shopping.cart.proto.journal.CheckedOut.Builder builder =
+          shopping.cart.proto.journal.CheckedOut.newBuilder()
+              .setCartId(checkedOut.cartId)
+              .setEventTime(toTimestamp(checkedOut.eventTime));
+      ItemQuantities items = checkedOut.items;
+      for (int i = 0; i < items.size(); i++) {
+        builder.addItems(
+            CheckedOutItem.newBuilder()
+                .setItemId(items.itemIdAt(i))
+                .setQuantity(items.quantityAt(i)));
+      }
+      return builder.build().toByteArray();
+    } else if (o instanceof ShoppingCart.CartRetired) {
+      ShoppingCart.CartRetired cartRetired = (ShoppingCart.CartRetired) o;
+      return shopping.cart.proto.journal.CartRetired.newBuilder()
+          .setCartId(cartRetired.cartId)
+          .setCheckoutDate(toTimestamp(cartRetired.checkoutDate))
+          .build()
+          .toByteArray();
+    } else if (o instanceof ShoppingCart.State) {
+      return toProto((ShoppingCart.State) o).toByteArray();
+    } else {
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    try {
+      switch (manifest) {
+        case ITEM_ADDED_MANIFEST:
+          {
+            shopping.cart.proto.journal.ItemAdded itemAdded =
+                shopping.cart.proto.journal.ItemAdded.parseFrom(bytes);
+            return new ShoppingCart.ItemAdded(
+                itemAdded.getCartId(), itemAdded.getItemId(), itemAdded.getQuantity());
+          }
+        case ITEM_REMOVED_MANIFEST:
+          {
+            shopping.cart.proto.journal.ItemRemoved itemRemoved =
+                shopping.cart.proto.journal.ItemRemoved.parseFrom(bytes);
+            return new ShoppingCart.ItemRemoved(
+                itemRemoved.getCartId(), itemRemoved.getItemId(), itemRemoved.getOldQuantity());
+          }
+        case ITEM_QUANTITY_ADJUSTED_MANIFEST:
+          {
+            shopping.cart.proto.journal.ItemQuantityAdjusted itemQuantityAdjusted =
+                shopping.cart.proto.journal.ItemQuantityAdjusted.parseFrom(bytes);
+            return new ShoppingCart.ItemQuantityAdjusted(
+                itemQuantityAdjusted.getCartId(),
+                itemQuantityAdjusted.getItemId(),
+                itemQuantityAdjusted.getOldQuantity(),
+                itemQuantityAdjusted.getQuantity());
+          }
+        case CHECKED_OUT_MANIFEST:
+          {
+            shopping.cart.proto.journal.CheckedOut checkedOut =
+                shopping.cart.proto.journal.CheckedOut.parseFrom(bytes);
+            return new ShoppingCart.CheckedOut(
+                checkedOut.getCartId(),
+                toInstant(checkedOut.getEventTime()),
+                checkedOutItems(checkedOut));
+          }
+        case CART_RETIRED_MANIFEST:
+          {
+            shopping.cart.proto.journal.CartRetired cartRetired =
+                shopping.cart.proto.journal.CartRetired.parseFrom(bytes);
+            return new ShoppingCart.CartRetired(
+                cartRetired.getCartId(), toInstant(cartRetired.getCheckoutDate()));
+          }
+        case STATE_MANIFEST:
+          return fromProto(CartState.parseFrom(bytes));
+        default:
+          throw new NotSerializableException(
+              "Unknown manifest [" + manifest + "] for " + getClass().getName());
+      }
+    } catch (InvalidProtocolBufferException e) {
+      throw new NotSerializableException(
+          "Invalid [" + manifest + "] message for " + getClass().getName() + ": " + e.getMessage());
+    }
+  }
+
+  private static ItemQuantities checkedOutItems(
+      shopping.cart.proto.journal.CheckedOut checkedOut) {
+    int size = checkedOut.getItemsCount();
+    String[] itemIds = new String[size];
+    int[] quantities = new int[size];
+    for (int i = 0; i < size; i++) {
+      CheckedOutItem item = checkedOut.getItems(i);
+      itemIds[i] = item.getItemId();
+      quantities[i] = item.getQuantity();
+    }
+    return ItemQuantities.of(itemIds, quantities);
+  }
+
+  // package-private for the CartView
+  static CartState toProto(ShoppingCart.State state) {
+    CartState.Builder builder = CartState.newBuilder();
+    ItemQuantities items = state.items();
+    for (int i = 0; i < items.size(); i++) {
+      builder.addItems(
+          CartItem.newBuilder().setItemId(items.itemIdAt(i)).setQuantity(items.quantityAt(i)));
+    }
+    state.checkoutDate().ifPresent(date -> builder.setCheckoutDate(toTimestamp(date)));
+    return builder.build();
+  }
+
+  static ShoppingCart.State fromProto(CartState cartState) {
+    int size = cartState.getItemsCount();
+    String[] itemIds = new String[size];
+    int[] quantities = new int[size];
+    for (int i = 0; i < size; i++) {
+      CartItem item = cartState.getItems(i);
+      itemIds[i] = item.getItemId();
+      quantities[i] = item.getQuantity();
+    }
+    Optional<Instant> checkoutDate =
+        cartState.hasCheckoutDate()
+            ? Optional.of(toInstant(cartState.getCheckoutDate()))
+            : Optional.empty();
+    return new ShoppingCart.State(ItemQuantities.of(itemIds, quantities), checkoutDate);
+  }
+
+  private static Timestamp toTimestamp(Instant instant) {
+    return Timestamp.newBuilder()
+        .setSeconds(instant.getEpochSecond())
+        .setNanos(instant.getNano())
+        .build();
+  }
+
+  private static Instant toInstant(Timestamp timestamp) {
+    return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+  }
+}
@@ -1,15 +1,25 @@
 package shopping.cart;
 
+import akka.NotUsed;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.DispatcherSelector;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.grpc.GrpcServiceException;
+import akka.persistence.typed.PersistenceId;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
 import io.grpc.Status;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
@@ -17,7 +27,10 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import shopping.cart.proto.*;
+import shopping.cart.repository.AsyncItemPopularityRepository;
+import shopping.cart.repository.CartViewRepository;
 import shopping.cart.repository.ItemPopularityRepository;
+import shopping.cart.repository.ReadReplicaRouting;
 
 public final class ShoppingCartServiceImpl implements ShoppingCartService {
 
@@ -29,23 +42,97 @@ public final class ShoppingCartServiceImpl implements ShoppingCartService {
   // tag::getItemPopularity[]
   private final ItemPopularityRepository repository;
   private final Executor blockingJdbcExecutor;
+  // the item popularity reads, on the read replica when it's enabled
+  private final Executor readExecutor;
+  // the non-blocking item popularity reads, instead of the JDBC ones when present
+  private final Optional<AsyncItemPopularityRepository> asyncRepository;
+  private final Optional<ItemPopularityCache> itemPopularityCache;
+  private final ItemPopularityBatchLoader itemPopularityBatchLoader;
+  private final int maxBatchItems;
+  private final ItemPopularityRanking itemPopularityRanking;
+  private final int maxTopItems;
+  private final ItemPopularityUpdates itemPopularityUpdates;
+  private final Duration watchCoalesceInterval;
+  private final CartViewRepository cartViewRepository;
+  private final String cartReadMode;
+  private final Duration cartMaxStaleness;
+  private final RpcMetrics rpcMetrics;
 
   public ShoppingCartServiceImpl(
-      ActorSystem<?> system, ItemPopularityRepository repository) { // <1>
+      ActorSystem<?> system,
+      ItemPopularityRepository repository,
+      ItemPopularityRanking itemPopularityRanking,
+      ItemPopularityUpdates itemPopularityUpdates,
+      CartViewRepository cartViewRepository,
+      Optional<AsyncItemPopularityRepository> asyncRepository) { // <1>
 
     DispatcherSelector dispatcherSelector =
         DispatcherSelector.fromConfig("akka.projection.jdbc.blocking-jdbc-dispatcher");
     this.blockingJdbcExecutor = system.dispatchers().lookup(dispatcherSelector); // <2>
+    if (system.settings().config().getBoolean("jdbc-connection-settings.read-replica.enabled")) {
+      readExecutor =
+          system
+              .dispatchers()
+              .lookup(
+                  DispatcherSelector.fromConfig(
+                      "shopping-cart-service.read-replica-jdbc-dispatcher"));
+    } else {
+      readExecutor = blockingJdbcExecutor;
+    }
 
     this.repository = repository;
+    this.asyncRepository = asyncRepository;
     timeout = system.settings().config().getDuration("shopping-cart-service.ask-timeout");
     sharding = ClusterSharding.get(system);
+
+    Config cacheSettings =
+        system.settings().config().getConfig("shopping-cart-service.item-popularity-cache");
+    if (cacheSettings.getBoolean("enabled")) {
+      itemPopularityCache =
+          Optional.of(new ItemPopularityCache(system, cacheSettings, this::loadPopularityCount));
+    } else {
+      itemPopularityCache = Optional.empty();
+    }
+
+    Config batchSettings =
+        system.settings().config().getConfig("shopping-cart-service.item-popularity-batch");
+    itemPopularityBatchLoader =
+        new ItemPopularityBatchLoader(system, batchSettings, this::loadPopularityCounts);
+    maxBatchItems = batchSettings.getInt("max-request-items");
+
+    this.itemPopularityRanking = itemPopularityRanking;
+    maxTopItems =
+        system
+            .settings()
+            .config()
+            .getInt("shopping-cart-service.item-popularity-ranking.max-limit");
+
+    this.itemPopularityUpdates = itemPopularityUpdates;
+    watchCoalesceInterval =
+        system
+            .settings()
+            .config()
+            .getDuration("shopping-cart-service.item-popularity-watch.coalesce-interval");
+
+    this.cartViewRepository = cartViewRepository;
+    Config getCartSettings = system.settings().config().getConfig("shopping-cart-service.get-cart");
+    cartReadMode = getCartSettings.getString("read-mode");
+    if (!cartReadMode.equals("entity")
+        && !cartReadMode.equals("view")
+        && !cartReadMode.equals("bounded")) {
+      throw new IllegalArgumentException(
+          "Unknown get-cart read-mode [" + cartReadMode + "], use entity, view or bounded");
+    }
+    cartMaxStaleness = getCartSettings.getDuration("max-staleness");
+
+    rpcMetrics = RpcMetrics.get(system);
   }
 
   // end::getItemPopularity[]
 
   @Override
   public CompletionStage<Cart> addItem(AddItemRequest in) {
+    long start = System.nanoTime();
     logger.info("addItem {} to cart {}", in.getItemId(), in.getCartId());
     EntityRef<ShoppingCart.Command> entityRef =
         sharding.entityRefFor(ShoppingCart.ENTITY_KEY, in.getCartId());
@@ -54,11 +141,36 @@ public final class ShoppingCartServiceImpl implements ShoppingCartService {
             replyTo -> new ShoppingCart.AddItem(in.getItemId(), in.getQuantity(), replyTo),
             timeout);
     CompletionStage<Cart> cart = reply.thenApply(ShoppingCartServiceImpl::toProtoCart);
-    return convertError(cart);
+    return timed(RpcMetrics.Method.ADD_ITEM, start, convertError(cart));
+  }
+
+  @Override
+  public CompletionStage<Cart> addItems(AddItemsRequest in) {
+    long start = System.nanoTime();
+    logger.info("addItems {} to cart {}", in.getItemsCount(), in.getCartId());
+    Map<String, Integer> items = new LinkedHashMap<>();
+    for (Item item : in.getItemsList()) {
+      if (items.put(item.getItemId(), item.getQuantity()) != null) {
+        return timed(
+            RpcMetrics.Method.ADD_ITEMS,
+            start,
+            CompletableFuture.failedFuture(
+                new GrpcServiceException(
+                    Status.INVALID_ARGUMENT.withDescription(
+                        "Item '" + item.getItemId() + "' is listed more than once"))));
+      }
+    }
+    EntityRef<ShoppingCart.Command> entityRef =
+        sharding.entityRefFor(ShoppingCart.ENTITY_KEY, in.getCartId());
+    CompletionStage<ShoppingCart.Summary> reply =
+        entityRef.askWithStatus(replyTo -> new ShoppingCart.AddItems(items, replyTo), timeout);
+    CompletionStage<Cart> cart = reply.thenApply(ShoppingCartServiceImpl::toProtoCart);
+    return timed(RpcMetrics.Method.ADD_ITEMS, start, convertError(cart));
   }
 
   @Override
   public CompletionStage<Cart> updateItem(UpdateItemRequest in) {
+    long start = System.nanoTime();
     logger.info("getCart {}", in.getCartId());
     EntityRef<ShoppingCart.Command> entityRef =
         sharding.entityRefFor(ShoppingCart.ENTITY_KEY, in.getCartId());
@@ -75,28 +187,28 @@ public final class ShoppingCartServiceImpl implements ShoppingCartService {
               timeout);
     }
     CompletionStage<Cart> cart = reply.thenApply(ShoppingCartServiceImpl::toProtoCart);
-    return convertError(cart);
+    return timed(RpcMetrics.Method.UPDATE_ITEM, start, convertError(cart));
   }
 
   // tag::checkoutAndGet[]
   @Override
   public CompletionStage<Cart> checkout(CheckoutRequest in) {
+    long start = System.nanoTime();
     logger.info("checkout {}", in.getCartId());
     EntityRef<ShoppingCart.Command> entityRef =
         sharding.entityRefFor(ShoppingCart.ENTITY_KEY, in.getCartId());
     CompletionStage<ShoppingCart.Summary> reply =
         entityRef.askWithStatus(replyTo -> new ShoppingCart.Checkout(replyTo), timeout);
     CompletionStage<Cart> cart = reply.thenApply(ShoppingCartServiceImpl::toProtoCart);
-    return convertError(cart);
+    return timed(RpcMetrics.Method.CHECKOUT, start, convertError(cart));
   }
 
   @Override
   public CompletionStage<Cart> getCart(GetCartRequest in) {
+    long start = System.nanoTime();
     logger.info("getCart {}", in.getCartId());
-    EntityRef<ShoppingCart.Command> entityRef =
-        sharding.entityRefFor(ShoppingCart.ENTITY_KEY, in.getCartId());
     CompletionStage<ShoppingCart.Summary> reply =
-        entityRef.ask(replyTo -> new ShoppingCart.Get(replyTo), timeout);
+        cartReadMode.equals("entity") ? askCart(in.getCartId()) : readCartView(in.getCartId());
     CompletionStage<Cart> protoCart =
         reply.thenApply(
             cart -> {
@@ -105,46 +217,201 @@ public final class ShoppingCartServiceImpl implements ShoppingCartService {
                     Status.NOT_FOUND.withDescription("Cart " + in.getCartId() + " not found"));
               else return toProtoCart(cart);
             });
-    return convertError(protoCart);
+    return timed(RpcMetrics.Method.GET_CART, start, convertError(protoCart));
+  }
+
+  private CompletionStage<ShoppingCart.Summary> askCart(String cartId) {
+    EntityRef<ShoppingCart.Command> entityRef =
+        sharding.entityRefFor(ShoppingCart.ENTITY_KEY, cartId);
+    return entityRef.ask(replyTo -> new ShoppingCart.Get(replyTo), timeout);
+  }
+
+  // the cart from the cart_view table, or from the entity when the view is too far behind
+  private CompletionStage<ShoppingCart.Summary> readCartView(String cartId) {
+    String persistenceId = PersistenceId.of(ShoppingCart.ENTITY_KEY.name(), cartId).id();
+    return CompletableFuture.supplyAsync(
+            () -> cartViewRepository.lookup(cartId, persistenceId), blockingJdbcExecutor)
+        .thenCompose(
+            lookup -> {
+              if (isFreshEnough(lookup)) {
+                ShoppingCart.State state =
+                    lookup.view.map(CartView::toState).orElseGet(ShoppingCart.State::new);
+                return CompletableFuture.completedFuture(state.toSummary());
+              } else {
+                return askCart(cartId);
+              }
+            });
+  }
+
+  private boolean isFreshEnough(CartViewLookup lookup) {
+    if (cartReadMode.equals("view") || !lookup.firstMissingEventTimestamp.isPresent()) {
+      return true;
+    }
+    // the view has been missing the event for this long
+    long staleness = System.currentTimeMillis() - lookup.firstMissingEventTimestamp.getAsLong();
+    return staleness <= cartMaxStaleness.toMillis();
   }
   // end::checkoutAndGet[]
 
   // tag::getItemPopularity[]
   @Override
   public CompletionStage<GetItemPopularityResponse> getItemPopularity(GetItemPopularityRequest in) {
+    long start = System.nanoTime();
+
+    CompletionStage<Long> popularityCount =
+        itemPopularityCache
+            .map(cache -> cache.get(in.getItemId()))
+            .orElseGet(() -> loadPopularityCount(in.getItemId()));
+
+    return timed(
+        RpcMetrics.Method.GET_ITEM_POPULARITY,
+        start,
+        popularityCount.thenApply(
+            count -> GetItemPopularityResponse.newBuilder().setPopularityCount(count).build()));
+  }
+
+  private CompletionStage<Long> loadPopularityCount(String itemId) {
+    if (asyncRepository.isPresent()) {
+      // doesn't hold a thread while the query runs
+      return asyncRepository.get().findCount(itemId);
+    }
 
     CompletionStage<Optional<ItemPopularity>> itemPopularity =
         CompletableFuture.supplyAsync(
-            () -> repository.findById(in.getItemId()), blockingJdbcExecutor); // <3>
+            () -> ReadReplicaRouting.onReplica(() -> repository.findById(itemId)),
+            readExecutor); // <3>
 
     return itemPopularity.thenApply(
-        popularity -> {
-          long count = popularity.map(ItemPopularity::getCount).orElse(0L);
-          return GetItemPopularityResponse.newBuilder().setPopularityCount(count).build();
-        });
+        popularity -> popularity.map(ItemPopularity::getCount).orElse(0L));
   }
   // end::getItemPopularity[]
 
-  // tag::toProtoCart[]
-  private static Cart toProtoCart(ShoppingCart.Summary cart) {
-    List<Item> protoItems =
-        cart.items.entrySet().stream()
+  private CompletionStage<Map<String, Long>> loadPopularityCounts(Set<String> itemIds) {
+    if (asyncRepository.isPresent()) {
+      return asyncRepository.get().findCounts(itemIds);
+    }
+    return CompletableFuture.supplyAsync(
+        () -> ReadReplicaRouting.onReplica(() -> repository.findCounts(itemIds)), readExecutor);
+  }
+
+  @Override
+  public CompletionStage<GetItemPopularitiesResponse> getItemPopularities(
+      GetItemPopularitiesRequest in) {
+    long start = System.nanoTime();
+    if (in.getItemIdsCount() > maxBatchItems) {
+      return timed(
+          RpcMetrics.Method.GET_ITEM_POPULARITIES,
+          start,
+          CompletableFuture.failedFuture(
+              new GrpcServiceException(
+                  Status.INVALID_ARGUMENT.withDescription(
+                      "At most " + maxBatchItems + " items can be requested at once"))));
+    }
+
+    // the items that are not cached are read together, also with those of concurrent requests
+    List<CompletableFuture<Long>> counts = new ArrayList<>(in.getItemIdsCount());
+    for (String itemId : in.getItemIdsList()) {
+      CompletionStage<Long> count =
+          itemPopularityCache
+              .map(cache -> cache.get(itemId, itemPopularityBatchLoader::load))
+              .orElseGet(() -> itemPopularityBatchLoader.load(itemId));
+      counts.add(count.toCompletableFuture());
+    }
+
+    CompletionStage<GetItemPopularitiesResponse> response =
+        CompletableFuture.allOf(counts.toArray(new CompletableFuture<?>[0]))
+            .thenApply(
+                notUsed -> {
+                  GetItemPopularitiesResponse.Builder items =
+                      GetItemPopularitiesResponse.newBuilder();
+                  for (int i = 0; i < counts.size(); i++) {
+                    items.addItems(
+                        GetItemPopularityResponse.newBuilder()
+                            .setItemId(in.getItemIds(i))
+                            .setPopularityCount(counts.get(i).join()));
+                  }
+                  return items.build();
+                });
+    return timed(RpcMetrics.Method.GET_ITEM_POPULARITIES, start, response);
+  }
+
+  @Override
+  public CompletionStage<GetTopItemsResponse> getTopItems(GetTopItemsRequest in) {
+    long start = System.nanoTime();
+    if (in.getLimit() <= 0) {
+      return timed(
+          RpcMetrics.Method.GET_TOP_ITEMS,
+          start,
+          CompletableFuture.failedFuture(
+              new GrpcServiceException(
+                  Status.INVALID_ARGUMENT.withDescription("Limit must be greater than zero"))));
+    }
+
+    List<GetItemPopularityResponse> items =
+        itemPopularityRanking.top(Math.min(in.getLimit(), maxTopItems)).stream()
             .map(
-                entry ->
-                    Item.newBuilder()
-                        .setItemId(entry.getKey())
-                        .setQuantity(entry.getValue())
+                popularity ->
+                    GetItemPopularityResponse.newBuilder()
+                        .setItemId(popularity.getItemId())
+                        .setPopularityCount(popularity.getCount())
                         .build())
             .collect(Collectors.toList());
 
-    return Cart.newBuilder().setCheckedOut(cart.checkedOut).addAllItems(protoItems).build();
+    return timed(
+        RpcMetrics.Method.GET_TOP_ITEMS,
+        start,
+        CompletableFuture.completedFuture(
+            GetTopItemsResponse.newBuilder().addAllItems(items).build()));
+  }
+
+  @Override
+  public Source<GetItemPopularityResponse, NotUsed> watchItemPopularity(
+      WatchItemPopularityRequest in) {
+    if (in.getItemIdsCount() == 0) {
+      return Source.failed(
+          new GrpcServiceException(
+              Status.INVALID_ARGUMENT.withDescription("At least one itemId must be watched")));
+    }
+
+    logger.info("watchItemPopularity {}", in.getItemIdsList());
+    return itemPopularityUpdates
+        .watch(new HashSet<>(in.getItemIdsList()), watchCoalesceInterval)
+        .map(
+            item ->
+                GetItemPopularityResponse.newBuilder()
+                    .setItemId(item.itemId)
+                    .setPopularityCount(item.count)
+                    .build());
+  }
+
+  // tag::toProtoCart[]
+  // package-private for the benchmarks
+  static Cart toProtoCart(ShoppingCart.Summary cart) {
+    Cart.Builder protoCart = Cart.newBuilder().setCheckedOut(cart.checkedOut);
+    for (int i = 0; i < cart.items.size(); i++) {
+      protoCart.addItems(
+          Item.newBuilder()
+              .setItemId(cart.items.itemIdAt(i))
+              .setQuantity(cart.items.quantityAt(i))
+              .build());
+    }
+    return protoCart.build();
   }
   // end::toProtoCart[]
 
+  private <T> CompletionStage<T> timed(
+      RpcMetrics.Method method, long start, CompletionStage<T> response) {
+    return response.whenComplete((result, ex) -> rpcMetrics.record(method, start, ex));
+  }
+
   private static <T> CompletionStage<T> convertError(CompletionStage<T> response) {
     return response.exceptionally(
-        ex -> {
-          if (ex instanceof TimeoutException) {
+        exc -> {
+          Throwable ex = exc instanceof CompletionException ? exc.getCause() : exc;
+          if (ex instanceof GrpcServiceException) {
+            // already has its status, such as NOT_FOUND of getCart
+            throw (GrpcServiceException) ex;
+          } else if (ex instanceof TimeoutException) {
             throw new GrpcServiceException(
                 Status.UNAVAILABLE.withDescription("Operation timed out"));
           } else {
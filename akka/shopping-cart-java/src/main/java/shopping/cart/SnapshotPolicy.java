@@ -0,0 +1,93 @@
+package shopping.cart;
+
+import akka.actor.typed.ActorSystem;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import com.typesafe.config.Config;
+
+/**
+ * Decides when a {@link ShoppingCart} takes a snapshot, from what its recoveries cost, see {@code
+ * shopping-cart-service.snapshots}.
+ *
+ * <p>A snapshot is taken when replaying the events since the previous snapshot is estimated to take
+ * longer than {@code max-replay-time}, or when there are many more of those events than items in
+ * the cart, so that the snapshot is much smaller than the events it replaces. Carts that churn
+ * their quantities get snapshots early, and small carts that are rarely changed don't get one for
+ * every few events. Snapshots are also taken on checkout, after which the cart is only read. The
+ * snapshot of a retired cart is taken by the retention criteria of {@link ShoppingCart#retiring}.
+ *
+ * <p>The replay time per event is measured by the recoveries of all carts of the node, which share
+ * one policy. It's the time from the first replayed event to the end of the recovery, so that the
+ * fixed cost of loading the snapshot and of the round trip of the events query isn't spread over
+ * the events. The effect of the settings on the recoveries shows in the {@link RecoveryMetrics}.
+ *
+ * <p>The old snapshots are deleted by the {@link RetentionCriteria}, through the snapshot store.
+ * They only delete when they take a snapshot themselves, every {@code max-events} events, but they
+ * delete by sequence number, so the snapshots taken here before the last {@code keep-snapshots}
+ * times {@code max-events} events are deleted with them.
+ */
+public final class SnapshotPolicy {
+
+  private final int maxEvents;
+  private final int keepSnapshots;
+  private final int minEvents;
+  private final long maxReplayNanos;
+  private final int maxEventsPerItem;
+  private final boolean onCheckout;
+  private final double smoothing;
+
+  // estimated from the recoveries of all carts of the node, an update that races with another
+  // one may be lost, which doesn't matter for an average
+  private volatile double replayNanosPerEvent;
+
+  public SnapshotPolicy(ActorSystem<?> system) {
+    Config settings = system.settings().config().getConfig("shopping-cart-service.snapshots");
+    maxEvents = settings.getInt("max-events");
+    keepSnapshots = settings.getInt("keep-snapshots");
+    minEvents = settings.getInt("min-events");
+    maxReplayNanos = settings.getDuration("max-replay-time").toNanos();
+    maxEventsPerItem = settings.getInt("max-events-per-item");
+    onCheckout = settings.getBoolean("on-checkout");
+    smoothing = settings.getDouble("replay-time-smoothing");
+    replayNanosPerEvent = settings.getDuration("initial-replay-time-per-event").toNanos();
+    if (minEvents < 1 || minEvents > maxEvents) {
+      throw new IllegalArgumentException("The snapshots must be 1 <= min-events <= max-events");
+    }
+  }
+
+  /** Snapshots every {@code max-events} events, whatever the cost, and deletes the old ones. */
+  RetentionCriteria retentionCriteria() {
+    return RetentionCriteria.snapshotEvery(maxEvents, keepSnapshots);
+  }
+
+  int maxEvents() {
+    return maxEvents;
+  }
+
+  /** Whether to take a snapshot after the event is persisted. */
+  boolean shouldSnapshot(ShoppingCart.Event event, int eventsSinceSnapshot, int items) {
+    if (event instanceof ShoppingCart.CheckedOut) {
+      return onCheckout;
+    } else if (eventsSinceSnapshot < minEvents) {
+      return false;
+    } else {
+      return eventsSinceSnapshot * replayNanosPerEvent >= maxReplayNanos
+          || eventsSinceSnapshot >= maxEventsPerItem * Math.max(1, items);
+    }
+  }
+
+  /**
+   * Called when a cart is recovered, with the time from its first replayed event to the end of the
+   * recovery, which is the time of replaying the events after the first one.
+   */
+  void recovered(long replayNanos, int replayed) {
+    if (replayed > 1) {
+      replayNanosPerEvent =
+          (1 - smoothing) * replayNanosPerEvent + smoothing * replayNanos / (replayed - 1);
+    }
+  }
+
+  // for the tests
+  double replayNanosPerEvent() {
+    return replayNanosPerEvent;
+  }
+}
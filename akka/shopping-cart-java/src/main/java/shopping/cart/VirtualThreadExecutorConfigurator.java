@@ -0,0 +1,113 @@
+package shopping.cart;
+
+import akka.dispatch.DispatcherPrerequisites;
+import akka.dispatch.ExecutorServiceConfigurator;
+import akka.dispatch.ExecutorServiceFactory;
+import com.typesafe.config.Config;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor of a dispatcher that runs each task on its own virtual thread, selected with {@code
+ * executor = "shopping.cart.VirtualThreadExecutorConfigurator"} in the dispatcher config. Needs
+ * Java 21 or later at runtime, the dispatcher fails to start on earlier versions.
+ *
+ * <p>The tasks that run at the same time are limited by a fair semaphore of {@code
+ * virtual-thread-executor.max-concurrency} permits rather than by the number of threads, so it
+ * should be the size of the connection pool that the tasks use. A task that waits for a permit
+ * parks its virtual thread, without holding an OS thread, and the tasks get the permits in the
+ * order they were submitted.
+ */
+public final class VirtualThreadExecutorConfigurator extends ExecutorServiceConfigurator {
+
+  private final int maxConcurrency;
+
+  public VirtualThreadExecutorConfigurator(Config config, DispatcherPrerequisites prerequisites) {
+    super(config, prerequisites);
+    maxConcurrency = config.getConfig("virtual-thread-executor").getInt("max-concurrency");
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("virtual-thread-executor.max-concurrency must be >= 1");
+    }
+  }
+
+  @Override
+  public ExecutorServiceFactory createExecutorServiceFactory(
+      String id, ThreadFactory threadFactory) {
+    // the thread factory of the dispatcher creates platform threads, and is not used
+    return () -> create(maxConcurrency);
+  }
+
+  /** A virtual thread per task executor, limited to the given concurrency. */
+  static ExecutorService create(int maxConcurrency) {
+    return new Limited(newVirtualThreadPerTaskExecutor(), new Semaphore(maxConcurrency, true));
+  }
+
+  // looked up at runtime, so that the service still compiles and runs on Java 11
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(
+          "Virtual threads need Java 21 or later, this is Java "
+              + System.getProperty("java.version"),
+          e);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not create the virtual thread executor", e);
+    }
+  }
+
+  private static final class Limited extends AbstractExecutorService {
+    private final ExecutorService virtualThreads;
+    private final Semaphore permits;
+
+    Limited(ExecutorService virtualThreads, Semaphore permits) {
+      this.virtualThreads = virtualThreads;
+      this.permits = permits;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      // the permit is taken on the virtual thread, so the submitting thread never blocks
+      virtualThreads.execute(
+          () -> {
+            permits.acquireUninterruptibly();
+            try {
+              task.run();
+            } finally {
+              permits.release();
+            }
+          });
+    }
+
+    @Override
+    public void shutdown() {
+      virtualThreads.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return virtualThreads.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return virtualThreads.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return virtualThreads.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return virtualThreads.awaitTermination(timeout, unit);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package shopping.cart.repository;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking reads of the {@code item_popularity} table, which don't hold a thread while the
+ * query runs. Implemented with R2DBC in {@link R2dbcItemPopularityRepository}.
+ */
+public interface AsyncItemPopularityRepository {
+
+  /** The count of the item, 0 when it doesn't exist. */
+  CompletionStage<Long> findCount(String itemId);
+
+  /**
+   * Reads the counts of the items with a single query.
+   *
+   * @return the counts of the items that exist, the items that don't are left out
+   */
+  CompletionStage<Map<String, Long>> findCounts(Collection<String> itemIds);
+}
@@ -0,0 +1,14 @@
+package shopping.cart.repository;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.repository.Repository;
+import shopping.cart.CartView;
+
+public interface CartViewRepository
+    extends Repository<CartView, String>, CartViewRepositoryCustom {
+
+  <S extends CartView> List<S> saveAll(Iterable<S> cartViews);
+
+  List<CartView> findAllByCartIdIn(Collection<String> cartIds);
+}
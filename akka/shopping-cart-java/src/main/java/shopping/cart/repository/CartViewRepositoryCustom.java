@@ -0,0 +1,15 @@
+package shopping.cart.repository;
+
+import shopping.cart.CartViewLookup;
+
+/** Queries of {@link CartViewRepository} that are implemented with plain SQL. */
+public interface CartViewRepositoryCustom {
+
+  /**
+   * The view of the cart, and the write time of the first event in the journal that is not applied
+   * to it yet, read with a single query.
+   *
+   * @param persistenceId the persistence id of the cart, for the journal
+   */
+  CartViewLookup lookup(String cartId, String persistenceId);
+}
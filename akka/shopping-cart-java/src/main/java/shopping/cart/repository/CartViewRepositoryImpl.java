@@ -0,0 +1,76 @@
+package shopping.cart.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Optional;
+import java.util.OptionalLong;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+import shopping.cart.CartView;
+import shopping.cart.CartViewLookup;
+import shopping.cart.ShoppingCartSerializer;
+
+/**
+ * PostgreSQL implementation of {@link CartViewRepositoryCustom}. Picked up by Spring Data as the
+ * fragment implementation of {@link CartViewRepository}.
+ *
+ * <p>The view is joined with the journal row of the next event of the cart, which is found by the
+ * primary key of the journal, so the staleness of the view is known without another round trip.
+ * The events that are not tagged, and so never reach the view, are skipped by their {@link
+ * ShoppingCartSerializer#UNTAGGED_EVENT_MANIFESTS}.
+ */
+@Transactional(readOnly = true)
+public class CartViewRepositoryImpl implements CartViewRepositoryCustom {
+
+  private static final String LOOKUP =
+      "SELECT v.cartid, v.version, v.seqnr, v.state, j.sequence_number, "
+          + "COALESCE(j.write_timestamp, 0) "
+          + "FROM (SELECT ?::varchar AS cartid) AS c "
+          + "LEFT JOIN cart_view v ON v.cartid = c.cartid "
+          + "LEFT JOIN LATERAL (SELECT sequence_number, write_timestamp FROM event_journal "
+          + "WHERE persistence_id = ? AND sequence_number > COALESCE(v.seqnr, 0) "
+          + "AND event_ser_manifest <> ALL (?) "
+          + "ORDER BY sequence_number LIMIT 1) AS j ON true";
+
+  @PersistenceContext private EntityManager entityManager;
+
+  @Override
+  public CartViewLookup lookup(String cartId, String persistenceId) {
+    return entityManager
+        .unwrap(Session.class)
+        .doReturningWork(
+            connection -> {
+              try (PreparedStatement statement = connection.prepareStatement(LOOKUP)) {
+                statement.setString(1, cartId);
+                statement.setString(2, persistenceId);
+                statement.setArray(
+                    3,
+                    connection.createArrayOf(
+                        "varchar", ShoppingCartSerializer.UNTAGGED_EVENT_MANIFESTS.toArray()));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                  if (!resultSet.next()) {
+                    // the query always selects one row, with nulls when there is no view
+                    throw new IllegalStateException("No lookup row for cart " + cartId);
+                  }
+                  Optional<CartView> view =
+                      resultSet.getString(1) == null
+                          ? Optional.empty()
+                          : Optional.of(
+                              new CartView(
+                                  resultSet.getString(1),
+                                  resultSet.getLong(2),
+                                  resultSet.getLong(3),
+                                  resultSet.getBytes(4)));
+                  resultSet.getLong(5);
+                  OptionalLong firstMissingEventTimestamp =
+                      resultSet.wasNull()
+                          ? OptionalLong.empty()
+                          : OptionalLong.of(resultSet.getLong(6));
+                  return new CartViewLookup(view, firstMissingEventTimestamp);
+                }
+              }
+            });
+  }
+}
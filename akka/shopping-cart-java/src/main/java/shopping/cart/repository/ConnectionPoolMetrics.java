@@ -0,0 +1,64 @@
+package shopping.cart.repository;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Counter;
+import com.lightbend.cinnamon.metric.GaugeLong;
+import com.lightbend.cinnamon.metric.Recorder;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Cinnamon metrics of the Hikari connection pools of {@link SpringConfig}, tagged with the {@code
+ * pool} name, so that the waits for the primary and for the read replica show separately.
+ *
+ * <ul>
+ *   <li>{@code jdbc-pool-wait-time}, the time to get a connection from the pool, in nanoseconds
+ *   <li>{@code jdbc-pool-usage-time}, the time a connection was held, in milliseconds
+ *   <li>{@code jdbc-pool-timeouts}, the connections that were not available within the timeout
+ *   <li>{@code jdbc-pool-active} and {@code jdbc-pool-pending}, the connections in use and the
+ *       threads that wait for one, updated when a connection is taken
+ * </ul>
+ */
+public final class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+  private final CinnamonMetrics metrics;
+
+  public ConnectionPoolMetrics(ActorSystem<?> system) {
+    metrics = CinnamonMetrics.get(Adapter.toClassic(system));
+  }
+
+  @Override
+  public IMetricsTracker create(String poolName, PoolStats poolStats) {
+    Map<String, String> tags = Collections.singletonMap("pool", poolName);
+    Recorder waitTime = metrics.createRecorder("jdbc-pool-wait-time", tags);
+    Recorder usageTime = metrics.createRecorder("jdbc-pool-usage-time", tags);
+    Counter timeouts = metrics.createCounter("jdbc-pool-timeouts", tags);
+    GaugeLong active = metrics.createGaugeLong("jdbc-pool-active", tags);
+    GaugeLong pending = metrics.createGaugeLong("jdbc-pool-pending", tags);
+
+    return new IMetricsTracker() {
+      @Override
+      public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        waitTime.record(elapsedAcquiredNanos);
+        // the pool stats are cached by Hikari for a second, so this is cheap
+        active.set(poolStats.getActiveConnections());
+        pending.set(poolStats.getPendingThreads());
+      }
+
+      @Override
+      public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        usageTime.record(elapsedBorrowedMillis);
+      }
+
+      @Override
+      public void recordConnectionTimeout() {
+        timeouts.increment();
+      }
+    };
+  }
+}
@@ -1,12 +1,17 @@
 package shopping.cart.repository;
 
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.Repository;
 import shopping.cart.ItemPopularity;
 
-public interface ItemPopularityRepository extends Repository<ItemPopularity, String> {
+public interface ItemPopularityRepository
+    extends Repository<ItemPopularity, String>, ItemPopularityRepositoryCustom {
 
   ItemPopularity save(ItemPopularity itemPopularity);
 
   Optional<ItemPopularity> findById(String id);
+
+  List<ItemPopularity> findAllByOrderByCountDesc(Pageable pageable);
 }
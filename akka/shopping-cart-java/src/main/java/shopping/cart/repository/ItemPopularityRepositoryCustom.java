@@ -0,0 +1,36 @@
+package shopping.cart.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import shopping.cart.ItemPopularity;
+
+/**
+ * Count updates that are applied atomically in the database, without reading the {@link
+ * shopping.cart.ItemPopularity} entity first, and counts that are read in bulk. Implemented with
+ * native statements in {@link ItemPopularityRepositoryImpl}.
+ */
+public interface ItemPopularityRepositoryCustom {
+
+  /**
+   * Adds {@code delta} to the count of the item, inserting the item if it doesn't exist yet.
+   *
+   * @return the updated item popularity
+   */
+  ItemPopularity incrementCount(String itemId, long delta);
+
+  /**
+   * Adds each delta to the count of its item with a single multi-row upsert, inserting the items
+   * that don't exist yet.
+   *
+   * @return the updated item popularities
+   */
+  List<ItemPopularity> incrementCounts(Map<String, Long> deltas);
+
+  /**
+   * Reads the counts of the items with a single {@code itemid = ANY(?)} query.
+   *
+   * @return the counts of the items that exist, the items that don't are left out
+   */
+  Map<String, Long> findCounts(Collection<String> itemIds);
+}
@@ -0,0 +1,134 @@
+package shopping.cart.repository;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.springframework.transaction.annotation.Transactional;
+import shopping.cart.ItemPopularity;
+
+/**
+ * PostgreSQL implementation of {@link ItemPopularityRepositoryCustom}. Picked up by Spring Data as
+ * the fragment implementation of {@link ItemPopularityRepository}.
+ *
+ * <p>The counts are incremented with {@code INSERT ... ON CONFLICT DO UPDATE}, so concurrent
+ * updates of the same item from different projection instances are serialized by the row lock
+ * instead of failing on the {@code @Version} optimistic lock. The version is still incremented
+ * for the JPA entity.
+ *
+ * <p>The multi-row upsert locks its rows in the order of the item ids, whatever the order of the
+ * deltas, so that the grouped projection instances of different tags that update some of the same
+ * items can't deadlock on each other's row locks.
+ */
+@Transactional
+public class ItemPopularityRepositoryImpl implements ItemPopularityRepositoryCustom {
+
+  private static final String UPSERT =
+      "INSERT INTO item_popularity (itemid, version, count) VALUES (?, 0, ?) "
+          + "ON CONFLICT (itemid) DO UPDATE SET "
+          + "count = item_popularity.count + EXCLUDED.count, "
+          + "version = item_popularity.version + 1 "
+          + "RETURNING count, version";
+
+  private static final String BATCH_UPSERT =
+      "INSERT INTO item_popularity (itemid, version, count) "
+          + "SELECT itemid, 0, delta FROM unnest(?::varchar[], ?::bigint[]) AS d(itemid, delta) "
+          + "ORDER BY itemid "
+          + "ON CONFLICT (itemid) DO UPDATE SET "
+          + "count = item_popularity.count + EXCLUDED.count, "
+          + "version = item_popularity.version + 1 "
+          + "RETURNING itemid, count, version";
+
+  private static final String FIND_COUNTS =
+      "SELECT itemid, count FROM item_popularity WHERE itemid = ANY(?::varchar[])";
+
+  // the transactional EntityManager, so that the statements join the projection transaction
+  @PersistenceContext private EntityManager entityManager;
+
+  @Override
+  public ItemPopularity incrementCount(String itemId, long delta) {
+    return withConnection(
+        connection -> {
+          try (PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+            statement.setString(1, itemId);
+            statement.setLong(2, delta);
+            try (ResultSet resultSet = statement.executeQuery()) {
+              resultSet.next();
+              return new ItemPopularity(itemId, resultSet.getLong(2), resultSet.getLong(1));
+            }
+          }
+        });
+  }
+
+  @Override
+  public List<ItemPopularity> incrementCounts(Map<String, Long> deltas) {
+    List<ItemPopularity> updated = new ArrayList<>(deltas.size());
+    if (deltas.isEmpty()) return updated;
+
+    String[] itemIds = new String[deltas.size()];
+    Long[] values = new Long[deltas.size()];
+    int i = 0;
+    for (Map.Entry<String, Long> delta : new TreeMap<>(deltas).entrySet()) {
+      itemIds[i] = delta.getKey();
+      values[i] = delta.getValue();
+      i++;
+    }
+
+    return withConnection(
+        connection -> {
+          Array itemIdArray = connection.createArrayOf("varchar", itemIds);
+          Array deltaArray = connection.createArrayOf("bigint", values);
+          try (PreparedStatement statement = connection.prepareStatement(BATCH_UPSERT)) {
+            statement.setArray(1, itemIdArray);
+            statement.setArray(2, deltaArray);
+            try (ResultSet resultSet = statement.executeQuery()) {
+              while (resultSet.next()) {
+                updated.add(
+                    new ItemPopularity(
+                        resultSet.getString(1), resultSet.getLong(3), resultSet.getLong(2)));
+              }
+            }
+          } finally {
+            itemIdArray.free();
+            deltaArray.free();
+          }
+          return updated;
+        });
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public Map<String, Long> findCounts(Collection<String> itemIds) {
+    Map<String, Long> counts = new HashMap<>();
+    if (itemIds.isEmpty()) return counts;
+
+    return withConnection(
+        connection -> {
+          Array itemIdArray = connection.createArrayOf("varchar", itemIds.toArray());
+          try (PreparedStatement statement = connection.prepareStatement(FIND_COUNTS)) {
+            statement.setArray(1, itemIdArray);
+            try (ResultSet resultSet = statement.executeQuery()) {
+              while (resultSet.next()) {
+                counts.put(resultSet.getString(1), resultSet.getLong(2));
+              }
+            }
+          } finally {
+            itemIdArray.free();
+          }
+          return counts;
+        });
+  }
+
+  private <Result> Result withConnection(ReturningWork<Result> work) {
+    return entityManager.unwrap(Session.class).doReturningWork(work);
+  }
+}
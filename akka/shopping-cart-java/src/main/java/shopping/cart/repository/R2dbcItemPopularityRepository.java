@@ -0,0 +1,100 @@
+package shopping.cart.repository;
+
+import akka.actor.typed.ActorSystem;
+import com.typesafe.config.Config;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * R2DBC implementation of {@link AsyncItemPopularityRepository}, with the connections of {@code
+ * r2dbc-connection-settings}.
+ *
+ * <p>The connection is released when the query completes, also when it fails. The batch read
+ * binds the item ids as one array, with {@code itemid = ANY($1)} like the JDBC repositories, so
+ * that PostgreSQL prepares the same statement whatever the number of items.
+ */
+public final class R2dbcItemPopularityRepository implements AsyncItemPopularityRepository {
+
+  private static final String FIND_COUNT = "SELECT count FROM item_popularity WHERE itemid = $1";
+
+  private static final String FIND_COUNTS =
+      "SELECT itemid, count FROM item_popularity WHERE itemid = ANY($1)";
+
+  private final ConnectionFactory connectionFactory;
+
+  public R2dbcItemPopularityRepository(ConnectionFactory connectionFactory) {
+    this.connectionFactory = connectionFactory;
+  }
+
+  /**
+   * A repository with a pool of connections configured by {@code r2dbc-connection-settings}, which
+   * is closed when the actor system terminates.
+   */
+  public static R2dbcItemPopularityRepository create(ActorSystem<?> system) {
+    Config settings = system.settings().config().getConfig("r2dbc-connection-settings");
+    ConnectionFactoryOptions options =
+        ConnectionFactoryOptions.parse(settings.getString("url"))
+            .mutate()
+            .option(ConnectionFactoryOptions.USER, settings.getString("user"))
+            .option(ConnectionFactoryOptions.PASSWORD, settings.getString("password"))
+            .build();
+    ConnectionPool pool =
+        new ConnectionPool(
+            ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .name("r2dbc-connection-pool")
+                .initialSize(settings.getInt("connection-pool.initial-size"))
+                .maxSize(settings.getInt("connection-pool.max-size"))
+                .maxAcquireTime(settings.getDuration("connection-pool.max-acquire-time"))
+                .build());
+    system.getWhenTerminated().thenAccept(done -> pool.dispose());
+    return new R2dbcItemPopularityRepository(pool);
+  }
+
+  @Override
+  public CompletionStage<Long> findCount(String itemId) {
+    return Mono.usingWhen(
+            Mono.<Connection>from(connectionFactory.create()),
+            connection ->
+                Flux.from(connection.createStatement(FIND_COUNT).bind(0, itemId).execute())
+                    .flatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+                    .next(),
+            Connection::close)
+        .defaultIfEmpty(0L)
+        .toFuture();
+  }
+
+  @Override
+  public CompletionStage<Map<String, Long>> findCounts(Collection<String> itemIds) {
+    if (itemIds.isEmpty()) return CompletableFuture.completedFuture(Collections.emptyMap());
+
+    return Mono.usingWhen(
+            Mono.<Connection>from(connectionFactory.create()),
+            connection ->
+                Flux.from(
+                        connection
+                            .createStatement(FIND_COUNTS)
+                            .bind(0, itemIds.toArray(new String[0]))
+                            .execute())
+                    .flatMap(
+                        result ->
+                            result.map(
+                                (row, metadata) ->
+                                    new AbstractMap.SimpleEntry<>(
+                                        row.get(0, String.class), row.get(1, Long.class))))
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue),
+            Connection::close)
+        .toFuture();
+  }
+}
@@ -0,0 +1,66 @@
+package shopping.cart.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * The {@link javax.sql.DataSource} of the repositories when {@code
+ * jdbc-connection-settings.read-replica} is enabled. The transactions that are started within
+ * {@link #onReplica} get their connection from the read replica pool, and all others from the
+ * primary pool, such as those of the projections.
+ *
+ * <p>A transaction keeps the connection that it started with, so a read within a transaction that
+ * is already running, on the primary, stays on the primary.
+ */
+public final class ReadReplicaRouting extends AbstractRoutingDataSource {
+
+  private enum Target {
+    PRIMARY,
+    REPLICA
+  }
+
+  private static final ThreadLocal<Boolean> ON_REPLICA = ThreadLocal.withInitial(() -> false);
+
+  private final HikariDataSource primary;
+  private final HikariDataSource replica;
+
+  ReadReplicaRouting(HikariDataSource primary, HikariDataSource replica) {
+    this.primary = primary;
+    this.replica = replica;
+    Map<Object, Object> targets = new HashMap<>();
+    targets.put(Target.PRIMARY, primary);
+    targets.put(Target.REPLICA, replica);
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  /**
+   * Runs the read with the connections of the read replica, when it's enabled, and with the
+   * primary otherwise. The read must not write, and can miss the latest writes by the lag of the
+   * replica.
+   */
+  public static <T> T onReplica(Supplier<T> read) {
+    boolean outer = ON_REPLICA.get();
+    ON_REPLICA.set(true);
+    try {
+      return read.get();
+    } finally {
+      ON_REPLICA.set(outer);
+    }
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    return ON_REPLICA.get() ? Target.REPLICA : Target.PRIMARY;
+  }
+
+  /** Closes both pools, called by Spring when the context is closed. */
+  public void close() {
+    replica.close();
+    primary.close();
+  }
+}
@@ -3,6 +3,7 @@ package shopping.cart.repository;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValue;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
@@ -27,9 +28,11 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 public class SpringConfig {
 
   private final Config config;
+  private final MetricsTrackerFactory poolMetrics;
 
-  public SpringConfig(Config config) {
+  public SpringConfig(Config config, MetricsTrackerFactory poolMetrics) {
     this.config = config;
+    this.poolMetrics = poolMetrics;
   }
 
   /**
@@ -64,26 +67,41 @@ public class SpringConfig {
    * Returns a {@link DataSource} configured with the settings in {@code
    * jdbc-connection-settings.driver}. See src/main/resources/persistence.conf and
    * src/main/resources/local-shared.conf
+   *
+   * <p>When {@code jdbc-connection-settings.read-replica} is enabled, the reads within {@link
+   * ReadReplicaRouting#onReplica} use a second pool, of connections to the read replica.
    */
   @Bean
   public DataSource dataSource() {
+    Config jdbcConfig = jdbcConfig();
+    HikariDataSource primary = hikariDataSource("read-side-connection-pool", jdbcConfig);
 
-    HikariDataSource dataSource = new HikariDataSource();
+    Config replicaConfig = jdbcConfig.getConfig("read-replica");
+    if (!replicaConfig.getBoolean("enabled")) {
+      return primary;
+    }
+    HikariDataSource replica = hikariDataSource("read-replica-connection-pool", replicaConfig);
+    replica.setReadOnly(true);
+    return new ReadReplicaRouting(primary, replica);
+  }
 
-    Config jdbcConfig = jdbcConfig();
+  private HikariDataSource hikariDataSource(String poolName, Config poolConfig) {
+
+    HikariDataSource dataSource = new HikariDataSource();
 
     // pool configuration
-    dataSource.setPoolName("read-side-connection-pool");
-    dataSource.setMaximumPoolSize(jdbcConfig.getInt("connection-pool.max-pool-size"));
+    dataSource.setPoolName(poolName);
+    dataSource.setMaximumPoolSize(poolConfig.getInt("connection-pool.max-pool-size"));
 
-    long timeout = jdbcConfig.getDuration("connection-pool.timeout", TimeUnit.MILLISECONDS);
+    long timeout = poolConfig.getDuration("connection-pool.timeout", TimeUnit.MILLISECONDS);
     dataSource.setConnectionTimeout(timeout);
+    dataSource.setMetricsTrackerFactory(poolMetrics);
 
     // database configuration
-    dataSource.setDriverClassName(jdbcConfig.getString("driver"));
-    dataSource.setJdbcUrl(jdbcConfig.getString("url"));
-    dataSource.setUsername(jdbcConfig.getString("user"));
-    dataSource.setPassword(jdbcConfig.getString("password"));
+    dataSource.setDriverClassName(jdbcConfig().getString("driver"));
+    dataSource.setJdbcUrl(poolConfig.getString("url"));
+    dataSource.setUsername(poolConfig.getString("user"));
+    dataSource.setPassword(poolConfig.getString("password"));
     dataSource.setAutoCommit(false);
 
     return dataSource;
@@ -2,6 +2,7 @@ package shopping.cart.repository;
 
 import akka.actor.typed.ActorSystem;
 import com.typesafe.config.Config;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
@@ -18,8 +19,10 @@ public class SpringIntegration {
   public static ApplicationContext applicationContext(ActorSystem<?> system) {
     Config config = system.settings().config();
     AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
-    // register the Config as a bean so it can be later injected into SpringConfig
+    // register the Config and the pool metrics as beans so they can be later injected into
+    // SpringConfig
     context.registerBean(Config.class, () -> config);
+    context.registerBean(MetricsTrackerFactory.class, () -> new ConnectionPoolMetrics(system));
     context.register(SpringConfig.class);
     context.refresh();
 
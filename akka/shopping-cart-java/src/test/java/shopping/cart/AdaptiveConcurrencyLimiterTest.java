@@ -0,0 +1,114 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxQueued) {
+    return new AdaptiveConcurrencyLimiter(
+        initialLimit,
+        1,
+        10,
+        Duration.ofSeconds(10),
+        0.5,
+        maxQueued,
+        exc -> exc instanceof IllegalStateException);
+  }
+
+  @Test
+  public void raiseLimitWhenCallsSucceed() {
+    AdaptiveConcurrencyLimiter limiter = limiter(2, 0);
+    // 1/2 + 1/2.5 + 1/2.9 > 1
+    for (int i = 0; i < 3; i++) {
+      limiter.submit(() -> CompletableFuture.completedFuture("ok"));
+    }
+    assertEquals(3, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void lowerLimitWhenCallsFail() {
+    AdaptiveConcurrencyLimiter limiter = limiter(8, 0);
+    limiter.submit(() -> CompletableFuture.failedFuture(new RuntimeException("failed")));
+    assertEquals(4, limiter.limit());
+    limiter.submit(
+        () -> {
+          throw new RuntimeException("failed");
+        });
+    assertEquals(2, limiter.limit());
+    // never below the min-limit
+    limiter.submit(() -> CompletableFuture.failedFuture(new RuntimeException("failed")));
+    limiter.submit(() -> CompletableFuture.failedFuture(new RuntimeException("failed")));
+    assertEquals(1, limiter.limit());
+  }
+
+  @Test
+  public void keepLimitForIgnoredFailures() {
+    AdaptiveConcurrencyLimiter limiter = limiter(8, 0);
+    limiter.submit(() -> CompletableFuture.failedFuture(new IllegalStateException("open")));
+    assertEquals(8, limiter.limit());
+  }
+
+  @Test
+  public void queueCallsAboveTheLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = limiter(2, 1);
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    List<CompletionStage<String>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<String> call = new CompletableFuture<>();
+      calls.add(call);
+      results.add(limiter.submit(() -> call));
+    }
+    assertEquals(2, limiter.inFlight());
+    assertEquals(1, limiter.queued());
+
+    // rejected when the queue is full
+    CompletionStage<String> rejected =
+        limiter.submit(() -> CompletableFuture.completedFuture("not called"));
+    try {
+      rejected.toCompletableFuture().get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    assertTrue(rejected.toCompletableFuture().isCompletedExceptionally());
+
+    // the queued call is started when one of the running calls completes
+    assertFalse(results.get(2).toCompletableFuture().isDone());
+    calls.get(0).complete("first");
+    assertEquals(2, limiter.inFlight());
+    assertEquals(0, limiter.queued());
+    calls.get(2).complete("third");
+    assertEquals("third", results.get(2).toCompletableFuture().get());
+  }
+
+  @Test
+  public void startQueuedCallsThatCompleteRightAwayWithoutNesting() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = limiter(1, 100_000);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    limiter.submit(() -> first);
+    List<CompletionStage<String>> results = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      results.add(limiter.submit(() -> CompletableFuture.completedFuture("ok")));
+    }
+    assertEquals(100_000, limiter.queued());
+
+    // starting each queued call from the completion of the previous one overflows the stack
+    first.complete("first");
+    assertEquals(0, limiter.queued());
+    assertEquals(0, limiter.inFlight());
+    for (CompletionStage<String> result : results) {
+      assertEquals("ok", result.toCompletableFuture().get());
+    }
+  }
+}
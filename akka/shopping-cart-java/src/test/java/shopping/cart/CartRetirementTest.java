@@ -0,0 +1,169 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.pattern.StatusReply;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class CartRetirementTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  private static final Config settings =
+      ConfigFactory.parseString(
+          "check-interval = 100 ms\nbatch-size = 2\nretire-timeout = 3 s");
+
+  // returns the carts after the given offset up to the processed offset, and records the lookups
+  static class TestJournal implements CartRetirement.Journal {
+    private final long processed;
+    private final List<CartRetirement.CheckedOutCart> checkedOut;
+    final BlockingQueue<Long> lookups = new LinkedBlockingQueue<>();
+
+    TestJournal(long processed, CartRetirement.CheckedOutCart... checkedOut) {
+      this.processed = processed;
+      this.checkedOut = Arrays.asList(checkedOut);
+    }
+
+    @Override
+    public CompletionStage<CartRetirement.RetirableCarts> findRetirableCarts(
+        String tag, long afterOffset, int limit) {
+      lookups.add(afterOffset);
+      List<CartRetirement.CheckedOutCart> carts = new ArrayList<>();
+      for (CartRetirement.CheckedOutCart cart : checkedOut) {
+        if (cart.offset > afterOffset && cart.offset <= processed && carts.size() < limit) {
+          carts.add(cart);
+        }
+      }
+      long readUpTo = carts.size() < limit ? processed : carts.get(carts.size() - 1).offset;
+      return CompletableFuture.completedFuture(new CartRetirement.RetirableCarts(carts, readUpTo));
+    }
+  }
+
+  // the retiring cart, which forwards the commands to the probe and tells when it's stopped
+  private static Behavior<ShoppingCart.Command> retiringCart(
+      String cartId, TestProbe<ShoppingCart.Command> probe, BlockingQueue<String> stopped) {
+    return Behaviors.receive(ShoppingCart.Command.class)
+        .onAnyMessage(
+            command -> {
+              probe.getRef().tell(command);
+              return Behaviors.same();
+            })
+        .onSignal(
+            PostStop.class,
+            signal -> {
+              stopped.add(cartId);
+              return Behaviors.same();
+            })
+        .build();
+  }
+
+  private static BlockingQueue<String> spawnRetirement(
+      TestJournal journal, Map<String, TestProbe<ShoppingCart.Command>> carts, Config settings) {
+    BlockingQueue<String> stopped = new LinkedBlockingQueue<>();
+    testKit.spawn(
+        CartRetirement.create(
+            journal,
+            cartId -> retiringCart(cartId, carts.get(cartId), stopped),
+            settings,
+            "carts-0"));
+    return stopped;
+  }
+
+  private static ShoppingCart.Retire expectRetire(TestProbe<ShoppingCart.Command> cart) {
+    return cart.expectMessageClass(ShoppingCart.Retire.class);
+  }
+
+  @Test
+  public void retireTheCartsWithTheirRetiringCarts() throws Exception {
+    TestJournal journal =
+        new TestJournal(
+            10,
+            new CartRetirement.CheckedOutCart("a", 3),
+            new CartRetirement.CheckedOutCart("b", 5),
+            new CartRetirement.CheckedOutCart("c", 8),
+            // not processed by all projections yet
+            new CartRetirement.CheckedOutCart("d", 12));
+    TestProbe<ShoppingCart.Command> cartA = testKit.createTestProbe();
+    TestProbe<ShoppingCart.Command> cartB = testKit.createTestProbe();
+    TestProbe<ShoppingCart.Command> cartC = testKit.createTestProbe();
+    TestProbe<ShoppingCart.Command> cartD = testKit.createTestProbe();
+    Map<String, TestProbe<ShoppingCart.Command>> carts = new HashMap<>();
+    carts.put("a", cartA);
+    carts.put("b", cartB);
+    carts.put("c", cartC);
+    carts.put("d", cartD);
+    BlockingQueue<String> stopped = spawnRetirement(journal, carts, settings);
+
+    expectRetire(cartA).replyTo.tell(StatusReply.ack());
+    assertEquals("a", stopped.poll(3, TimeUnit.SECONDS));
+    expectRetire(cartB).replyTo.tell(StatusReply.ack());
+    assertEquals("b", stopped.poll(3, TimeUnit.SECONDS));
+
+    // the next check continues after the events that the previous one read
+    expectRetire(cartC).replyTo.tell(StatusReply.ack());
+    assertEquals("c", stopped.poll(3, TimeUnit.SECONDS));
+    assertEquals(Long.valueOf(0L), journal.lookups.poll(3, TimeUnit.SECONDS));
+    assertEquals(Long.valueOf(5L), journal.lookups.poll(3, TimeUnit.SECONDS));
+    assertEquals(Long.valueOf(10L), journal.lookups.poll(3, TimeUnit.SECONDS));
+    cartD.expectNoMessage(Duration.ofMillis(300));
+  }
+
+  @Test
+  public void skipTheCartsThatFailToBeRetired() throws Exception {
+    TestJournal journal =
+        new TestJournal(
+            10,
+            new CartRetirement.CheckedOutCart("a", 3),
+            new CartRetirement.CheckedOutCart("b", 5));
+    TestProbe<ShoppingCart.Command> cartA = testKit.createTestProbe();
+    TestProbe<ShoppingCart.Command> cartB = testKit.createTestProbe();
+    Map<String, TestProbe<ShoppingCart.Command>> carts = new HashMap<>();
+    carts.put("a", cartA);
+    carts.put("b", cartB);
+    BlockingQueue<String> stopped = spawnRetirement(journal, carts, settings);
+
+    expectRetire(cartA).replyTo.tell(StatusReply.error("snapshot failed"));
+    assertEquals("a", stopped.poll(3, TimeUnit.SECONDS));
+    expectRetire(cartB).replyTo.tell(StatusReply.ack());
+    assertEquals("b", stopped.poll(3, TimeUnit.SECONDS));
+
+    // not tried again by the next checks
+    cartA.expectNoMessage(Duration.ofMillis(300));
+  }
+
+  @Test
+  public void stopTheCartsThatDontReplyInTime() throws Exception {
+    TestJournal journal = new TestJournal(10, new CartRetirement.CheckedOutCart("a", 3));
+    TestProbe<ShoppingCart.Command> cartA = testKit.createTestProbe();
+    BlockingQueue<String> stopped =
+        spawnRetirement(
+            journal,
+            Collections.singletonMap("a", cartA),
+            ConfigFactory.parseString("retire-timeout = 100 ms").withFallback(settings));
+
+    expectRetire(cartA);
+    // skipped after the timeout
+    assertEquals("a", stopped.poll(3, TimeUnit.SECONDS));
+    cartA.expectNoMessage(Duration.ofMillis(300));
+  }
+}
@@ -0,0 +1,142 @@
+package shopping.cart;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.persistence.typed.PersistenceId;
+import com.typesafe.config.ConfigFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import shopping.cart.repository.CartViewRepository;
+import shopping.cart.repository.SpringIntegration;
+
+// the lookups of the cart views against the journal, without the CartViewProjection, so that the
+// views are only changed by the test
+public class CartViewIntegrationTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(ConfigFactory.load("item-popularity-integration-test.conf"));
+
+  private static final Duration timeout = Duration.ofSeconds(3);
+
+  private static ActorSystem<?> system = testKit.system();
+  private static CartViewRepository cartViewRepository;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    ApplicationContext springContext = SpringIntegration.applicationContext(system);
+    cartViewRepository = springContext.getBean(CartViewRepository.class);
+    JpaTransactionManager transactionManager = springContext.getBean(JpaTransactionManager.class);
+    CreateTableTestUtils.createTables(transactionManager, system);
+
+    ShoppingCart.init(system, new ProjectionTags(system));
+
+    Cluster node = Cluster.get(system);
+    node.manager().tell(Join.create(node.selfMember().address()));
+    TestProbe<Object> probe = testKit.createTestProbe();
+    probe.awaitAssert(
+        () -> {
+          assertEquals(MemberStatus.up(), node.selfMember().status());
+          return null;
+        });
+  }
+
+  private static CartViewLookup lookup(String cartId) {
+    return cartViewRepository.lookup(
+        cartId, PersistenceId.of(ShoppingCart.ENTITY_KEY.name(), cartId).id());
+  }
+
+  // the view of the cart with the events up to the sequence number applied
+  private static void saveView(String cartId, ShoppingCart.State state, long seqNr) {
+    CartView view =
+        cartViewRepository.findAllByCartIdIn(Collections.singletonList(cartId)).stream()
+            .findFirst()
+            .orElseGet(() -> CartView.empty(cartId));
+    cartViewRepository.saveAll(Collections.singletonList(view.withState(state, seqNr)));
+  }
+
+  @Test
+  public void tellHowFarTheViewIsBehindTheJournal() throws Exception {
+    String cartId = "view-cart-1";
+    EntityRef<ShoppingCart.Command> cart =
+        ClusterSharding.get(system).entityRefFor(ShoppingCart.ENTITY_KEY, cartId);
+
+    cart.<ShoppingCart.Summary>askWithStatus(
+            replyTo -> new ShoppingCart.AddItem("item1", 1, replyTo), timeout)
+        .toCompletableFuture()
+        .get(3, SECONDS);
+    CartViewLookup noView = lookup(cartId);
+    assertFalse(noView.view.isPresent());
+    assertTrue(noView.firstMissingEventTimestamp.isPresent());
+
+    ShoppingCart.State state = new ShoppingCart.State().updateItem("item1", 1);
+    saveView(cartId, state, 1L);
+    assertFalse(lookup(cartId).firstMissingEventTimestamp.isPresent());
+
+    long beforeSecondEvent = System.currentTimeMillis();
+    cart.<ShoppingCart.Summary>askWithStatus(
+            replyTo -> new ShoppingCart.AddItem("item2", 2, replyTo), timeout)
+        .toCompletableFuture()
+        .get(3, SECONDS);
+    CartViewLookup behind = lookup(cartId);
+    assertEquals(1L, behind.view.get().getSeqNr());
+    assertTrue(behind.firstMissingEventTimestamp.getAsLong() >= beforeSecondEvent);
+
+    saveView(cartId, state.updateItem("item2", 2), 2L);
+    CartViewLookup upToDate = lookup(cartId);
+    assertEquals(2L, upToDate.view.get().getSeqNr());
+    assertFalse(upToDate.firstMissingEventTimestamp.isPresent());
+  }
+
+  @Test
+  public void skipTheEventsThatAreNotTagged() throws Exception {
+    String cartId = "view-cart-2";
+    EntityRef<ShoppingCart.Command> cart =
+        ClusterSharding.get(system).entityRefFor(ShoppingCart.ENTITY_KEY, cartId);
+
+    cart.<ShoppingCart.Summary>askWithStatus(
+            replyTo -> new ShoppingCart.AddItem("item1", 1, replyTo), timeout)
+        .toCompletableFuture()
+        .get(3, SECONDS);
+    cart.<ShoppingCart.Summary>askWithStatus(ShoppingCart.Checkout::new, timeout)
+        .toCompletableFuture()
+        .get(3, SECONDS);
+    saveView(cartId, new ShoppingCart.State().updateItem("item1", 1).checkout(Instant.now()), 2L);
+
+    // the CartRetired event is never applied to the view
+    ActorRef<ShoppingCart.Command> retiring =
+        testKit.spawn(
+            ShoppingCart.retiring(
+                cartId,
+                new ProjectionTags(system).tagFor(cartId),
+                new SnapshotPolicy(system),
+                new RecoveryMetrics(system)));
+    AskPattern.<ShoppingCart.Command, Done>askWithStatus(
+            retiring, ShoppingCart.Retire::new, timeout, system.scheduler())
+        .toCompletableFuture()
+        .get(3, SECONDS);
+    CartViewLookup lookup = lookup(cartId);
+    assertEquals(2L, lookup.view.get().getSeqNr());
+    assertFalse(lookup.firstMissingEventTimestamp.isPresent());
+  }
+}
@@ -0,0 +1,99 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import akka.persistence.query.Offset;
+import akka.projection.eventsourced.EventEnvelope;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import org.junit.Test;
+import shopping.cart.repository.CartViewRepository;
+
+public class CartViewProjectionHandlerTest {
+  // stub out the db layer and keep the saved views in memory
+  static class TestCartViewRepository implements CartViewRepository {
+    final Map<String, CartView> views = new HashMap<>();
+    int saveCount = 0;
+
+    @Override
+    public <S extends CartView> List<S> saveAll(Iterable<S> entities) {
+      saveCount++;
+      List<S> saved = new ArrayList<>();
+      for (S view : entities) {
+        views.put(view.getCartId(), view);
+        saved.add(view);
+      }
+      return saved;
+    }
+
+    @Override
+    public List<CartView> findAllByCartIdIn(Collection<String> cartIds) {
+      List<CartView> found = new ArrayList<>();
+      for (String cartId : cartIds) {
+        if (views.containsKey(cartId)) found.add(views.get(cartId));
+      }
+      return found;
+    }
+
+    @Override
+    public CartViewLookup lookup(String cartId, String persistenceId) {
+      // there is no journal, so the views are always up to date
+      return new CartViewLookup(Optional.ofNullable(views.get(cartId)), OptionalLong.empty());
+    }
+  }
+
+  private EventEnvelope<ShoppingCart.Event> createEnvelope(ShoppingCart.Event event, long seqNo) {
+    return new EventEnvelope<>(Offset.sequence(seqNo), "persistenceId", seqNo, event, 0L);
+  }
+
+  @Test
+  public void applyTheEventsOfAGroupToTheViews() {
+    TestCartViewRepository repo = new TestCartViewRepository();
+    CartViewProjectionHandler handler = new CartViewProjectionHandler("carts-0", repo);
+
+    handler.process(
+        null,
+        Arrays.asList(
+            createEnvelope(new ShoppingCart.ItemAdded("a", "skis", 1), 1L),
+            createEnvelope(new ShoppingCart.ItemAdded("b", "bowling shoes", 2), 1L),
+            createEnvelope(new ShoppingCart.ItemQuantityAdjusted("a", "skis", 1, 3), 2L)));
+
+    assertEquals(1, repo.saveCount);
+    assertEquals(2, repo.views.get("a").getSeqNr());
+    assertEquals(3, repo.views.get("a").toState().items().quantity("skis"));
+    assertEquals(2, repo.views.get("b").toState().items().quantity("bowling shoes"));
+  }
+
+  @Test
+  public void skipEventsThatAreAlreadyApplied() {
+    TestCartViewRepository repo = new TestCartViewRepository();
+    CartViewProjectionHandler handler = new CartViewProjectionHandler("carts-0", repo);
+
+    handler.process(
+        null, Arrays.asList(createEnvelope(new ShoppingCart.ItemAdded("a", "skis", 1), 1L)));
+    // delivered again after a restart, together with the next events
+    handler.process(
+        null,
+        Arrays.asList(
+            createEnvelope(new ShoppingCart.ItemAdded("a", "skis", 1), 1L),
+            createEnvelope(new ShoppingCart.ItemAdded("a", "poles", 1), 2L),
+            createEnvelope(
+                new ShoppingCart.CheckedOut(
+                    "a", Instant.parse("2020-01-01T12:00:00.00Z"), ItemQuantities.EMPTY),
+                3L)));
+
+    ShoppingCart.State state = repo.views.get("a").toState();
+    assertEquals(3, repo.views.get("a").getSeqNr());
+    assertEquals(1, state.items().quantity("skis"));
+    assertEquals(1, state.items().quantity("poles"));
+    assertTrue(state.isCheckedOut());
+  }
+}
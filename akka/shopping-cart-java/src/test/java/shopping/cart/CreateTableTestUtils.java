@@ -52,7 +52,10 @@ public class CreateTableTestUtils {
 
     Path path = Paths.get("ddl-scripts/create_user_tables.sql");
     if (path.toFile().exists()) {
-      SchemaUtils.applyScript("DROP TABLE IF EXISTS public.item_popularity;", system)
+      SchemaUtils.applyScript(
+              "DROP TABLE IF EXISTS public.item_popularity; DROP TABLE IF EXISTS public.cart_view; "
+                  + "DROP TABLE IF EXISTS public.publish_events_offset;",
+              system)
           .toCompletableFuture()
           .get(30, SECONDS);
 
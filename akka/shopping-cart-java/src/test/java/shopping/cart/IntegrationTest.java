@@ -39,8 +39,11 @@ import org.springframework.orm.jpa.JpaTransactionManager;
 import scala.jdk.CollectionConverters;
 import shopping.cart.proto.*;
 import shopping.cart.repository.SpringIntegration;
+import shopping.order.proto.OrderBatchRequest;
+import shopping.order.proto.OrderBatchResponse;
 import shopping.order.proto.OrderRequest;
 import shopping.order.proto.OrderResponse;
+import shopping.order.proto.OrderResult;
 import shopping.order.proto.ShoppingOrderService;
 
 public class IntegrationTest {
@@ -190,11 +193,29 @@ public class IntegrationTest {
             return CompletableFuture.completedFuture(
                 OrderResponse.newBuilder().setOk(true).build());
           }
+
+          @Override
+          public CompletionStage<OrderBatchResponse> orderBatch(OrderBatchRequest in) {
+            OrderBatchResponse.Builder response = OrderBatchResponse.newBuilder();
+            for (OrderRequest order : in.getOrdersList()) {
+              orderServiceProbe.getRef().tell(order);
+              response.addResults(
+                  OrderResult.newBuilder().setCartId(order.getCartId()).setOk(true));
+            }
+            return CompletableFuture.completedFuture(response.build());
+          }
         };
 
-    Main.init(testNode1.testKit.system(), testOrderService);
-    Main.init(testNode2.testKit.system(), testOrderService);
-    Main.init(testNode3.testKit.system(), testOrderService);
+    // the order service client is wrapped the same way in Main.orderServiceClient
+    Main.init(
+        testNode1.testKit.system(),
+        new ResilientOrderService(testOrderService, testNode1.testKit.system()));
+    Main.init(
+        testNode2.testKit.system(),
+        new ResilientOrderService(testOrderService, testNode2.testKit.system()));
+    Main.init(
+        testNode3.testKit.system(),
+        new ResilientOrderService(testOrderService, testNode3.testKit.system()));
 
     // wait for all nodes to have joined the cluster, become up and see all other nodes as up
     TestProbe<Object> upProbe = testNode1.testKit.createTestProbe();
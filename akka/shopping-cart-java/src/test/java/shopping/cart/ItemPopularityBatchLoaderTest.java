@@ -0,0 +1,92 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ItemPopularityBatchLoaderTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  // records the item sets of the queries, and only knows the socks
+  static class TestQuery {
+    final List<Set<String>> queried = new CopyOnWriteArrayList<>();
+
+    CompletionStage<Map<String, Long>> findCounts(Set<String> itemIds) {
+      queried.add(new HashSet<>(itemIds));
+      return CompletableFuture.completedFuture(Collections.singletonMap("socks", 42L));
+    }
+  }
+
+  private static Config settings(String window, int maxSize) {
+    return ConfigFactory.parseString("window = " + window + "\n" + "max-size = " + maxSize);
+  }
+
+  private static ItemPopularityBatchLoader loader(Config settings, TestQuery query) {
+    return new ItemPopularityBatchLoader(testKit.system(), settings, query::findCounts);
+  }
+
+  @Test
+  public void readTheItemsWithinTheWindowWithOneQuery() throws Exception {
+    TestQuery query = new TestQuery();
+    ItemPopularityBatchLoader loader = loader(settings("100 ms", 100), query);
+
+    CompletableFuture<Long> socks = loader.load("socks").toCompletableFuture();
+    CompletableFuture<Long> skis = loader.load("skis").toCompletableFuture();
+    CompletableFuture<Long> socksAgain = loader.load("socks").toCompletableFuture();
+    assertFalse(socks.isDone());
+
+    assertEquals(42L, socks.get(3, TimeUnit.SECONDS).longValue());
+    assertEquals(42L, socksAgain.get(3, TimeUnit.SECONDS).longValue());
+    // unknown items have a count of 0
+    assertEquals(0L, skis.get(3, TimeUnit.SECONDS).longValue());
+    assertEquals(
+        Collections.singletonList(new HashSet<>(Arrays.asList("socks", "skis"))), query.queried);
+  }
+
+  @Test
+  public void readFullBatchesRightAway() throws Exception {
+    TestQuery query = new TestQuery();
+    ItemPopularityBatchLoader loader = loader(settings("1 minute", 2), query);
+
+    CompletableFuture<Long> socks = loader.load("socks").toCompletableFuture();
+    CompletableFuture<Long> skis = loader.load("skis").toCompletableFuture();
+    assertEquals(42L, socks.get(3, TimeUnit.SECONDS).longValue());
+    assertEquals(0L, skis.get(3, TimeUnit.SECONDS).longValue());
+
+    // the next item starts a new batch
+    CompletableFuture<Long> boots = loader.load("boots").toCompletableFuture();
+    assertFalse(boots.isDone());
+    assertEquals(1, query.queried.size());
+  }
+
+  @Test
+  public void failAllItemsOfAFailedQuery() {
+    ItemPopularityBatchLoader loader =
+        new ItemPopularityBatchLoader(
+            testKit.system(),
+            settings("1 minute", 2),
+            itemIds -> CompletableFuture.failedFuture(new IllegalStateException("database down")));
+
+    CompletableFuture<Long> socks = loader.load("socks").toCompletableFuture();
+    CompletableFuture<Long> skis = loader.load("skis").toCompletableFuture();
+    assertTrue(socks.isCompletedExceptionally());
+    assertTrue(skis.isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,136 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ItemPopularityCacheTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  // records the loaded itemIds and lets the test decide when loads complete
+  static class TestLoader {
+    final List<String> loaded = new ArrayList<>();
+    final List<CompletableFuture<Long>> pending = new ArrayList<>();
+
+    CompletionStage<Long> load(String itemId) {
+      loaded.add(itemId);
+      CompletableFuture<Long> count = new CompletableFuture<>();
+      pending.add(count);
+      return count;
+    }
+  }
+
+  private static Config settings(int maxEntries, String timeToLive) {
+    return ConfigFactory.parseString(
+        "max-entries = " + maxEntries + "\n" + "time-to-live = " + timeToLive);
+  }
+
+  @Test
+  public void collapseConcurrentMisses() throws Exception {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(10, "1 minute"), loader::load);
+
+    CompletableFuture<Long> first = cache.get("socks").toCompletableFuture();
+    CompletableFuture<Long> second = cache.get("socks").toCompletableFuture();
+    assertEquals(1, loader.loaded.size());
+    assertFalse(first.isDone());
+
+    loader.pending.get(0).complete(42L);
+    assertEquals(42L, first.get().longValue());
+    assertEquals(42L, second.get().longValue());
+
+    // served from the cache
+    assertEquals(42L, cache.get("socks").toCompletableFuture().get().longValue());
+    assertEquals(1, loader.loaded.size());
+  }
+
+  @Test
+  public void reloadExpiredEntries() throws Exception {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(10, "0 s"), loader::load);
+
+    cache.get("socks");
+    loader.pending.get(0).complete(42L);
+    CompletableFuture<Long> reloaded = cache.get("socks").toCompletableFuture();
+    assertEquals(2, loader.loaded.size());
+
+    loader.pending.get(1).complete(43L);
+    assertEquals(43L, reloaded.get().longValue());
+  }
+
+  @Test
+  public void startTheTimeToLiveWhenTheLoadCompletes() throws Exception {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(10, "200 ms"), loader::load);
+
+    CompletableFuture<Long> count = cache.get("socks").toCompletableFuture();
+    // a load that takes longer than the time-to-live
+    Thread.sleep(300);
+    loader.pending.get(0).complete(42L);
+    assertEquals(42L, count.get().longValue());
+
+    assertEquals(42L, cache.get("socks").toCompletableFuture().get().longValue());
+    assertEquals(1, loader.loaded.size());
+  }
+
+  @Test
+  public void notLetACallerCompleteTheSharedLoad() throws Exception {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(10, "1 minute"), loader::load);
+
+    cache.get("socks").toCompletableFuture().complete(-1L);
+    CompletableFuture<Long> other = cache.get("socks").toCompletableFuture();
+    assertFalse(other.isDone());
+
+    loader.pending.get(0).complete(42L);
+    assertEquals(42L, other.get().longValue());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsedEntries() {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(2, "1 minute"), loader::load);
+
+    cache.get("a");
+    cache.get("b");
+    cache.get("a");
+    cache.get("c"); // evicts "b"
+    loader.pending.forEach(count -> count.complete(1L));
+
+    cache.get("a");
+    cache.get("c");
+    assertEquals(3, loader.loaded.size());
+    cache.get("b");
+    assertEquals(4, loader.loaded.size());
+  }
+
+  @Test
+  public void notCacheFailedLoads() {
+    TestLoader loader = new TestLoader();
+    ItemPopularityCache cache =
+        new ItemPopularityCache(testKit.system(), settings(10, "1 minute"), loader::load);
+
+    CompletableFuture<Long> failed = cache.get("socks").toCompletableFuture();
+    loader.pending.get(0).completeExceptionally(new RuntimeException("db down"));
+    assertTrue(failed.isCompletedExceptionally());
+
+    cache.get("socks");
+    assertEquals(2, loader.loaded.size());
+  }
+}
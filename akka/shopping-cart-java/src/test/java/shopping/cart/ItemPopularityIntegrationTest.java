@@ -45,9 +45,15 @@ public class ItemPopularityIntegrationTest {
     // create schemas
     CreateTableTestUtils.createTables(transactionManager, system);
 
-    ShoppingCart.init(system);
-
-    ItemPopularityProjection.init(system, transactionManager, itemPopularityRepository);
+    ProjectionTags projectionTags = new ProjectionTags(system);
+    ShoppingCart.init(system, projectionTags);
+
+    ItemPopularityProjection.init(
+        system,
+        transactionManager,
+        itemPopularityRepository,
+        new ItemPopularityUpdates(system),
+        projectionTags);
 
     // form a single node cluster and make sure that completes before running the test
     Cluster node = Cluster.get(system);
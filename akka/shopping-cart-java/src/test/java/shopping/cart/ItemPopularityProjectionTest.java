@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import akka.Done;
 import akka.NotUsed;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.persistence.query.Offset;
 import akka.projection.ProjectionId;
 import akka.projection.eventsourced.EventEnvelope;
@@ -13,21 +14,27 @@ import akka.projection.testkit.javadsl.ProjectionTestKit;
 import akka.projection.testkit.javadsl.TestProjection;
 import akka.projection.testkit.javadsl.TestSourceProvider;
 import akka.stream.javadsl.Source;
+import com.typesafe.config.ConfigFactory;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.springframework.data.domain.Pageable;
 import shopping.cart.repository.ItemPopularityRepository;
 
 public class ItemPopularityProjectionTest {
   // stub out the db layer and simulate recording item count updates
   static class TestItemPopularityRepository implements ItemPopularityRepository {
     private final Map<String, ItemPopularity> itemPops = new HashMap<>();
+    private int upsertCount = 0;
 
     @Override
     public ItemPopularity save(ItemPopularity itemPopularity) {
@@ -39,12 +46,58 @@ public class ItemPopularityProjectionTest {
     public Optional<ItemPopularity> findById(String id) {
       return Optional.ofNullable(itemPops.get(id));
     }
+
+    @Override
+    public ItemPopularity incrementCount(String itemId, long delta) {
+      upsertCount++;
+      return add(itemId, delta);
+    }
+
+    @Override
+    public List<ItemPopularity> incrementCounts(Map<String, Long> deltas) {
+      upsertCount++;
+      List<ItemPopularity> updated = new ArrayList<>();
+      deltas.forEach((itemId, delta) -> updated.add(add(itemId, delta)));
+      return updated;
+    }
+
+    @Override
+    public Map<String, Long> findCounts(Collection<String> itemIds) {
+      Map<String, Long> counts = new HashMap<>();
+      for (String itemId : itemIds) {
+        findById(itemId).ifPresent(itemPop -> counts.put(itemId, itemPop.getCount()));
+      }
+      return counts;
+    }
+
+    @Override
+    public List<ItemPopularity> findAllByOrderByCountDesc(Pageable pageable) {
+      throw new UnsupportedOperationException();
+    }
+
+    private ItemPopularity add(String itemId, long delta) {
+      ItemPopularity updated =
+          findById(itemId)
+              .map(
+                  existing ->
+                      new ItemPopularity(
+                          itemId, existing.getVersion() + 1, existing.getCount() + delta))
+              .orElseGet(() -> new ItemPopularity(itemId, 0, delta));
+      itemPops.put(itemId, updated);
+      return updated;
+    }
   }
 
-  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "shopping-cart-service.item-popularity-watch.buffer-size = 16"));
 
   static final ProjectionTestKit projectionTestKit = ProjectionTestKit.create(testKit.system());
 
+  static final ItemPopularityUpdates updates = new ItemPopularityUpdates(testKit.system());
+
   private EventEnvelope<ShoppingCart.Event> createEnvelope(ShoppingCart.Event event, long seqNo) {
     return new EventEnvelope<>(Offset.sequence(seqNo), "persistenceId", seqNo, event, 0L);
   }
@@ -77,13 +130,15 @@ public class ItemPopularityProjectionTest {
                 createEnvelope(
                     new ShoppingCart.ItemQuantityAdjusted("a7079", "bowling shoes", 1, 2), 1L),
                 createEnvelope(
-                    new ShoppingCart.CheckedOut("a7079", Instant.parse("2020-01-01T12:00:00.00Z")),
+                    new ShoppingCart.CheckedOut(
+                        "a7079", Instant.parse("2020-01-01T12:00:00.00Z"), ItemQuantities.EMPTY),
                     2L),
                 createEnvelope(new ShoppingCart.ItemAdded("0d12d", "akka t-shirt", 1), 3L),
                 createEnvelope(new ShoppingCart.ItemAdded("0d12d", "skis", 1), 4L),
                 createEnvelope(new ShoppingCart.ItemRemoved("0d12d", "skis", 1), 5L),
                 createEnvelope(
-                    new ShoppingCart.CheckedOut("0d12d", Instant.parse("2020-01-01T12:05:00.00Z")),
+                    new ShoppingCart.CheckedOut(
+                        "0d12d", Instant.parse("2020-01-01T12:05:00.00Z"), ItemQuantities.EMPTY),
                     6L)));
 
     TestItemPopularityRepository repository = new TestItemPopularityRepository();
@@ -96,7 +151,9 @@ public class ItemPopularityProjectionTest {
         TestProjection.create(
             projectionId,
             sourceProvider,
-            () -> toAsyncHandler(new ItemPopularityProjectionHandler("carts-0", repository)));
+            () ->
+                toAsyncHandler(
+                    new ItemPopularityProjectionHandler("carts-0", repository, updates)));
 
     projectionTestKit.run(
         projection,
@@ -107,4 +164,41 @@ public class ItemPopularityProjectionTest {
           assertEquals(0L, repository.itemPops.get("skis").getCount());
         });
   }
+
+  @Test
+  public void itemPopularityGroupedUpdate() {
+    TestItemPopularityRepository repository = new TestItemPopularityRepository();
+    ItemPopularityProjectionGroupedHandler handler =
+        new ItemPopularityProjectionGroupedHandler("carts-0", repository, updates);
+    TestProbe<ItemPopularityUpdates.Changed> subscriber = testKit.createTestProbe();
+    updates.subscribe(subscriber.getRef());
+
+    // session = null is safe, see toAsyncHandler
+    handler.process(
+        null,
+        Arrays.asList(
+            createEnvelope(new ShoppingCart.ItemAdded("a7079", "bowling shoes", 1), 0L),
+            createEnvelope(
+                new ShoppingCart.ItemQuantityAdjusted("a7079", "bowling shoes", 1, 2), 1L),
+            createEnvelope(
+                new ShoppingCart.CheckedOut(
+                    "a7079", Instant.parse("2020-01-01T12:00:00.00Z"), ItemQuantities.EMPTY),
+                2L),
+            createEnvelope(new ShoppingCart.ItemAdded("0d12d", "akka t-shirt", 1), 3L),
+            createEnvelope(new ShoppingCart.ItemAdded("0d12d", "bowling shoes", 3), 4L),
+            createEnvelope(new ShoppingCart.ItemAdded("0d12d", "skis", 1), 5L),
+            createEnvelope(new ShoppingCart.ItemRemoved("0d12d", "skis", 1), 6L)));
+
+    // a single upsert for all touched items, without "skis" since its changes cancel out
+    assertEquals(1, repository.upsertCount);
+    assertEquals(2, repository.itemPops.size());
+    assertEquals(5L, repository.itemPops.get("bowling shoes").getCount());
+    assertEquals(1L, repository.itemPops.get("akka t-shirt").getCount());
+
+    // without a transaction the updated counts are published right away
+    ItemPopularityUpdates.Changed changed = subscriber.receiveMessage();
+    assertEquals(2, changed.items.size());
+    assertEquals("bowling shoes", changed.items.get(0).itemId);
+    assertEquals(5L, changed.items.get(0).count);
+  }
 }
@@ -0,0 +1,76 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class ItemPopularityRankingTest {
+
+  private static ItemPopularityUpdates.ItemCount item(String itemId, long count, long version) {
+    return new ItemPopularityUpdates.ItemCount(itemId, count, version);
+  }
+
+  private static List<String> topItemIds(ItemPopularityRanking ranking, int limit) {
+    return ranking.top(limit).stream()
+        .map(ItemPopularity::getItemId)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void rankMostPopularFirst() {
+    ItemPopularityRanking ranking = new ItemPopularityRanking(10);
+    ranking.update(
+        Arrays.asList(item("socks", 3, 0), item("skis", 7, 0), item("akka t-shirt", 5, 0)));
+
+    assertEquals(Arrays.asList("skis", "akka t-shirt", "socks"), topItemIds(ranking, 10));
+    assertEquals(Arrays.asList("skis", "akka t-shirt"), topItemIds(ranking, 2));
+  }
+
+  @Test
+  public void reorderUpdatedItems() {
+    ItemPopularityRanking ranking = new ItemPopularityRanking(10);
+    ranking.update(Arrays.asList(item("socks", 3, 0), item("skis", 7, 0)));
+    ranking.update(Arrays.asList(item("socks", 8, 1)));
+
+    assertEquals(Arrays.asList("socks", "skis"), topItemIds(ranking, 10));
+    assertEquals(8L, ranking.top(1).get(0).getCount());
+  }
+
+  @Test
+  public void ignoreOutdatedUpdates() {
+    ItemPopularityRanking ranking = new ItemPopularityRanking(10);
+    ranking.update(Arrays.asList(item("socks", 8, 2)));
+    // e.g. the seed that was read before the update was published
+    ranking.update(Arrays.asList(item("socks", 3, 1)));
+
+    assertEquals(8L, ranking.top(1).get(0).getCount());
+  }
+
+  @Test
+  public void dropItemsThatAreInNoCart() {
+    ItemPopularityRanking ranking = new ItemPopularityRanking(10);
+    ranking.update(Arrays.asList(item("socks", 3, 0), item("skis", 7, 0)));
+    ranking.update(Arrays.asList(item("skis", 0, 1)));
+
+    assertEquals(Arrays.asList("socks"), topItemIds(ranking, 10));
+    assertEquals(1, ranking.size());
+  }
+
+  @Test
+  public void keepOnlyTheMostPopularItems() {
+    ItemPopularityRanking ranking = new ItemPopularityRanking(2);
+    ranking.update(
+        Arrays.asList(item("socks", 3, 0), item("skis", 7, 0), item("akka t-shirt", 5, 0)));
+
+    assertEquals(Arrays.asList("skis", "akka t-shirt"), topItemIds(ranking, 10));
+    assertEquals(2, ranking.size());
+
+    // a dropped item comes back with its full count
+    ranking.update(Arrays.asList(item("socks", 9, 1)));
+    assertEquals(Arrays.asList("socks", "skis"), topItemIds(ranking, 10));
+    assertEquals(2, ranking.size());
+  }
+}
@@ -0,0 +1,86 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.japi.Pair;
+import akka.stream.javadsl.Keep;
+import akka.stream.testkit.TestPublisher;
+import akka.stream.testkit.TestSubscriber;
+import akka.stream.testkit.javadsl.TestSink;
+import akka.stream.testkit.javadsl.TestSource;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ItemPopularityUpdatesTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  private static ItemPopularityUpdates.Changed changed(ItemPopularityUpdates.ItemCount... items) {
+    return new ItemPopularityUpdates.Changed(Arrays.asList(items));
+  }
+
+  private static ItemPopularityUpdates.ItemCount item(String itemId, long count, long version) {
+    return new ItemPopularityUpdates.ItemCount(itemId, count, version);
+  }
+
+  private Pair<
+          TestPublisher.Probe<ItemPopularityUpdates.Changed>,
+          TestSubscriber.Probe<ItemPopularityUpdates.ItemCount>>
+      watch(String... itemIds) {
+    return ItemPopularityUpdates.watch(
+            TestSource.<ItemPopularityUpdates.Changed>probe(testKit.system()),
+            new HashSet<>(Arrays.asList(itemIds)),
+            Duration.ofMillis(100))
+        .toMat(TestSink.probe(testKit.system()), Keep.both())
+        .run(testKit.system());
+  }
+
+  @Test
+  public void coalesceChangesWhileDownstreamBackpressures() {
+    Pair<
+            TestPublisher.Probe<ItemPopularityUpdates.Changed>,
+            TestSubscriber.Probe<ItemPopularityUpdates.ItemCount>>
+        probes = watch("socks", "skis");
+    TestPublisher.Probe<ItemPopularityUpdates.Changed> publisher = probes.first();
+    TestSubscriber.Probe<ItemPopularityUpdates.ItemCount> subscriber = probes.second();
+
+    publisher.sendNext(changed(item("socks", 1, 0), item("akka t-shirt", 1, 0)));
+    publisher.sendNext(changed(item("socks", 2, 1)));
+    publisher.sendNext(changed(item("skis", 4, 3), item("socks", 3, 2)));
+    // reordered, older than the previous change of skis
+    publisher.sendNext(changed(item("skis", 3, 2)));
+
+    subscriber.request(10);
+    ItemPopularityUpdates.ItemCount socks = subscriber.expectNext();
+    assertEquals("socks", socks.itemId);
+    assertEquals(3L, socks.count);
+    ItemPopularityUpdates.ItemCount skis = subscriber.expectNext();
+    assertEquals("skis", skis.itemId);
+    assertEquals(4L, skis.count);
+    subscriber.expectNoMessage(Duration.ofMillis(200));
+  }
+
+  @Test
+  public void neverEmitOlderVersions() {
+    Pair<
+            TestPublisher.Probe<ItemPopularityUpdates.Changed>,
+            TestSubscriber.Probe<ItemPopularityUpdates.ItemCount>>
+        probes = watch("socks");
+    TestPublisher.Probe<ItemPopularityUpdates.Changed> publisher = probes.first();
+    TestSubscriber.Probe<ItemPopularityUpdates.ItemCount> subscriber = probes.second();
+
+    subscriber.request(10);
+    publisher.sendNext(changed(item("socks", 5, 5)));
+    assertEquals(5L, subscriber.expectNext().count);
+
+    publisher.sendNext(changed(item("socks", 4, 4)));
+    subscriber.expectNoMessage(Duration.ofMillis(200));
+
+    publisher.sendNext(changed(item("socks", 6, 6)));
+    assertEquals(6L, subscriber.expectNext().count);
+  }
+}
@@ -0,0 +1,125 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import akka.serialization.jackson.JacksonObjectMapperProvider;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.typesafe.config.ConfigFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ItemQuantitiesTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "akka.actor.serialization-bindings {\n"
+                  + "  \"shopping.cart.CborSerializable\" = jackson-cbor\n"
+                  + "}"));
+
+  @Test
+  public void updateCopiesAndKeepTheOriginal() {
+    ItemQuantities one = ItemQuantities.EMPTY.updated("foo", 42);
+    ItemQuantities two = one.updated("bar", 1);
+    ItemQuantities adjusted = two.updated("foo", 43);
+    ItemQuantities removed = adjusted.removed("foo");
+
+    assertEquals(1, one.size());
+    assertEquals(42, two.quantity("foo"));
+    assertEquals(43, adjusted.quantity("foo"));
+    assertEquals(1, removed.size());
+    assertEquals("bar", removed.itemIdAt(0));
+    assertEquals(0, removed.quantity("foo"));
+    assertSame(removed, removed.removed("foo"));
+    assertSame(ItemQuantities.EMPTY, removed.removed("bar"));
+  }
+
+  @Test
+  public void buildInPlaceWithoutChangingTheBuiltInstances() {
+    ItemQuantities original = ItemQuantities.EMPTY.updated("foo", 42);
+    ItemQuantities.Builder builder = new ItemQuantities.Builder(original);
+    assertSame(original, builder.build());
+
+    for (int i = 0; i < 10; i++) {
+      builder.set("item-" + i, i + 1);
+    }
+    ItemQuantities built = builder.build();
+    assertSame(built, builder.build());
+    builder.set("foo", 43);
+    builder.remove("item-0");
+
+    assertEquals(42, original.quantity("foo"));
+    assertEquals(1, original.size());
+    assertEquals(11, built.size());
+    assertEquals(42, built.quantity("foo"));
+    assertEquals(1, built.quantity("item-0"));
+    assertEquals(10, builder.size());
+    assertEquals(43, builder.build().quantity("foo"));
+    assertEquals("item-1", builder.build().itemIdAt(1));
+    assertFalse(builder.contains("item-0"));
+  }
+
+  @Test
+  public void behaveAsAMap() {
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("foo", 42);
+    expected.put("bar", 1);
+    ItemQuantities items = ItemQuantities.EMPTY.updated("foo", 42).updated("bar", 1);
+
+    assertEquals(expected, items);
+    assertEquals(expected.hashCode(), items.hashCode());
+    assertEquals(42, items.get("foo").intValue());
+    assertNull(items.get("baz"));
+    assertTrue(items.containsKey("bar"));
+    assertFalse(items.isEmpty());
+    assertSame(items, ItemQuantities.copyOf(items));
+  }
+
+  @Test
+  public void readStateThatWasStoredWithAPlainMap() throws Exception {
+    // the shape of the State snapshots that were stored when the items were a HashMap
+    Map<String, Integer> items = new LinkedHashMap<>();
+    items.put("foo", 42);
+    items.put("bar", 1);
+    Map<String, Object> storedState = new LinkedHashMap<>();
+    storedState.put("items", items);
+    storedState.put("checkoutDate", null);
+    storedState.put("checkedOut", false);
+    storedState.put("empty", false);
+    ObjectMapper mapper =
+        JacksonObjectMapperProvider.get(testKit.system())
+            .getOrCreate("jackson-cbor", Optional.of(new CBORFactory()));
+    byte[] bytes = mapper.writeValueAsBytes(storedState);
+
+    Serialization serialization =
+        SerializationExtension.get(Adapter.toClassic(testKit.system()));
+    ShoppingCart.State emptyState = new ShoppingCart.State();
+    Serializer serializer = serialization.findSerializerFor(emptyState);
+    ShoppingCart.State state =
+        (ShoppingCart.State)
+            serialization
+                .deserialize(
+                    bytes, serializer.identifier(), Serializers.manifestFor(serializer, emptyState))
+                .get();
+
+    assertEquals(items, state.items());
+    assertEquals(42, state.itemCount("foo"));
+    assertFalse(state.isCheckedOut());
+  }
+}
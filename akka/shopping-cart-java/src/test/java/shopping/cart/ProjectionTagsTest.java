@@ -0,0 +1,62 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import com.typesafe.config.ConfigFactory;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ProjectionTagsTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "shopping-cart-service.projections.tags {\n"
+                  + "  count = 8\n"
+                  + "  # the count was 32 before\n"
+                  + "  drain-count = 32\n"
+                  + "  mapping = mixed-ranges\n"
+                  + "}"));
+
+  @Test
+  public void spreadCartsEvenlyOverTags() {
+    ProjectionTags tags = new ProjectionTags(testKit.system());
+    int carts = 8000;
+    Map<String, Integer> cartsPerTag = new HashMap<>();
+    for (int i = 0; i < carts; i++) {
+      cartsPerTag.merge(tags.tagFor("cart-" + i), 1, Integer::sum);
+    }
+
+    assertEquals(8, cartsPerTag.size());
+    int expected = carts / 8;
+    cartsPerTag.forEach(
+        (tag, count) ->
+            assertTrue(
+                tag + " has " + count + " carts", Math.abs(count - expected) < expected / 4));
+  }
+
+  @Test
+  public void keepTagNamesAndDrainTagsAboveTheCount() {
+    ProjectionTags tags = new ProjectionTags(testKit.system());
+    assertEquals(32, tags.size());
+    assertEquals("carts-0", tags.tag(0));
+    assertEquals("carts-2", tags.tagFor("cart-1"));
+    assertEquals("carts-31", tags.tag(31));
+  }
+
+  @Test
+  public void keepTheTagsOfExistingCartsWithTheModuloMapping() {
+    ProjectionTags tags =
+        new ProjectionTags(
+            ConfigFactory.parseString("count = 5\n" + "drain-count = 0\n" + "mapping = modulo"));
+    for (int i = 0; i < 100; i++) {
+      String cartId = "cart-" + i;
+      assertEquals("carts-" + Math.abs(cartId.hashCode() % 5), tags.tagFor(cartId));
+    }
+  }
+}
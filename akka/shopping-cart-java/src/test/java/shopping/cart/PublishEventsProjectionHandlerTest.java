@@ -0,0 +1,75 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.Message;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import org.junit.Test;
+
+public class PublishEventsProjectionHandlerTest {
+
+  private static byte[] anyPack(Message message) {
+    return Any.pack(message, "shopping-cart-service").toByteArray();
+  }
+
+  @Test
+  public void packLikeAny() {
+    shopping.cart.proto.ItemAdded message =
+        shopping.cart.proto.ItemAdded.newBuilder()
+            .setCartId("cart1")
+            .setItemId("socks")
+            .setQuantity(3)
+            .build();
+    byte[] typeUrl =
+        "shopping-cart-service/shoppingcart.ItemAdded".getBytes(StandardCharsets.UTF_8);
+
+    assertArrayEquals(anyPack(message), PublishEventsProjectionHandler.pack(typeUrl, message));
+    // also for an empty message, and a type url with a length of more than one byte
+    String longTypeUrl = new String(new char[200]).replace('\0', 'x');
+    shopping.cart.proto.ItemAdded empty = shopping.cart.proto.ItemAdded.getDefaultInstance();
+    assertArrayEquals(
+        Any.newBuilder()
+            .setTypeUrl(longTypeUrl)
+            .setValue(empty.toByteString())
+            .build()
+            .toByteArray(),
+        PublishEventsProjectionHandler.pack(
+            longTypeUrl.getBytes(StandardCharsets.UTF_8), empty));
+  }
+
+  @Test
+  public void serializeTheEventsLikeAny() {
+    assertArrayEquals(
+        anyPack(
+            shopping.cart.proto.ItemAdded.newBuilder()
+                .setCartId("cart1")
+                .setItemId("socks")
+                .setQuantity(3)
+                .build()),
+        PublishEventsProjectionHandler.serialize(new ShoppingCart.ItemAdded("cart1", "socks", 3)));
+    assertArrayEquals(
+        anyPack(
+            shopping.cart.proto.ItemQuantityAdjusted.newBuilder()
+                .setCartId("cart1")
+                .setItemId("socks")
+                .setQuantity(5)
+                .build()),
+        PublishEventsProjectionHandler.serialize(
+            new ShoppingCart.ItemQuantityAdjusted("cart1", "socks", 3, 5)));
+    assertArrayEquals(
+        anyPack(
+            shopping.cart.proto.ItemRemoved.newBuilder()
+                .setCartId("cart1")
+                .setItemId("socks")
+                .build()),
+        PublishEventsProjectionHandler.serialize(
+            new ShoppingCart.ItemRemoved("cart1", "socks", 5)));
+    assertArrayEquals(
+        anyPack(shopping.cart.proto.CheckedOut.newBuilder().setCartId("cart1").build()),
+        PublishEventsProjectionHandler.serialize(
+            new ShoppingCart.CheckedOut(
+                "cart1", Instant.EPOCH, ItemQuantities.EMPTY.updated("socks", 5))));
+  }
+}
@@ -0,0 +1,305 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import akka.NotUsed;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.Sequence;
+import akka.stream.RestartSettings;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.lightbend.cinnamon.akka.CinnamonMetrics;
+import com.lightbend.cinnamon.metric.Recorder;
+import com.typesafe.config.ConfigFactory;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class PublishEventsTransactionalProjectionTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  private static final String TOPIC = "shopping-cart-events";
+  private static final String OFFSETS_TOPIC = "shopping-cart-events-offsets";
+  private static final String OFFSET_KEY = "PublishEventsProjection-carts-0";
+
+  private static final Recorder transactionLatency =
+      CinnamonMetrics.get(Adapter.toClassic(testKit.system()))
+          .createRecorder("publish-events-transaction-latency");
+
+  // the offset store of the at-least-once modes
+  static class TestProjectionOffsets
+      implements PublishEventsTransactionalProjection.ProjectionOffsets {
+    final Map<String, Offset> offsets = new HashMap<>();
+
+    @Override
+    public Optional<Offset> read(String tag) {
+      return Optional.ofNullable(offsets.get(tag));
+    }
+
+    @Override
+    public void save(String tag, Offset offset) {
+      offsets.put(tag, offset);
+    }
+  }
+
+  private static MockProducer<String, byte[]> producer() {
+    MockProducer<String, byte[]> producer =
+        new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+    producer.initTransactions();
+    return producer;
+  }
+
+  private static PublishEventsTransactionalProjection.TransactionalSession session(
+      MockProducer<String, byte[]> producer, TestProjectionOffsets projectionOffsets) {
+    return new PublishEventsTransactionalProjection.TransactionalSession(
+        producer, TOPIC, OFFSETS_TOPIC, 0, "carts-0", projectionOffsets, transactionLatency);
+  }
+
+  private static EventEnvelope envelope(long offset, ShoppingCart.Event event) {
+    return new EventEnvelope(
+        Offset.sequence(offset), "ShoppingCart|" + event.cartId, 1L, event, 0L);
+  }
+
+  private static long offsetValue(ProducerRecord<String, byte[]> record) {
+    return ByteBuffer.wrap(record.value()).getLong();
+  }
+
+  @Test
+  public void publishEventsAndTheirOffsetInOneTransaction() {
+    MockProducer<String, byte[]> producer = producer();
+    TestProjectionOffsets projectionOffsets = new TestProjectionOffsets();
+    PublishEventsTransactionalProjection.TransactionalSession session =
+        session(producer, projectionOffsets);
+
+    session.publish(
+        Arrays.asList(
+            envelope(3, new ShoppingCart.ItemAdded("cart1", "socks", 2)),
+            envelope(5, new ShoppingCart.ItemAdded("cart2", "skis", 1))));
+
+    assertEquals(1, producer.commitCount());
+    List<ProducerRecord<String, byte[]>> published = producer.history();
+    assertEquals(3, published.size());
+    assertEquals(TOPIC, published.get(0).topic());
+    assertEquals("cart1", published.get(0).key());
+    assertEquals("cart2", published.get(1).key());
+    assertEquals(OFFSETS_TOPIC, published.get(2).topic());
+    assertEquals(OFFSET_KEY, published.get(2).key());
+    assertEquals(5L, offsetValue(published.get(2)));
+    // kept up to date for switching back to the at-least-once modes
+    assertEquals(Offset.sequence(5), projectionOffsets.offsets.get("carts-0"));
+    assertEquals(Offset.sequence(5), session.offset);
+  }
+
+  @Test
+  public void notSaveTheOffsetOfAFailedTransaction() {
+    MockProducer<String, byte[]> producer = producer();
+    producer.commitTransactionException = new KafkaException("broker down");
+    TestProjectionOffsets projectionOffsets = new TestProjectionOffsets();
+    PublishEventsTransactionalProjection.TransactionalSession session =
+        session(producer, projectionOffsets);
+    session.offset = Offset.sequence(2);
+
+    try {
+      session.publish(
+          Collections.singletonList(envelope(3, new ShoppingCart.ItemAdded("cart1", "socks", 2))));
+      fail("Expected the commit to fail");
+    } catch (KafkaException e) {
+      // the publisher is restarted, and continues from the last committed offset
+    }
+
+    assertTrue(producer.history().isEmpty());
+    assertTrue(projectionOffsets.offsets.isEmpty());
+    assertEquals(Offset.sequence(2), session.offset);
+  }
+
+  @Test
+  public void continueFromTheOffsetsTopicBeforeTheProjectionOffset() {
+    TestProjectionOffsets projectionOffsets = new TestProjectionOffsets();
+    projectionOffsets.save("carts-0", Offset.sequence(7));
+    PublishEventsTransactionalProjection.TransactionalSession session =
+        session(producer(), projectionOffsets);
+
+    session.continueFrom(Optional.of(9L));
+    assertEquals(Offset.sequence(9), session.offset);
+  }
+
+  @Test
+  public void continueFromTheProjectionOffsetWhenTheOffsetsTopicHasNone() {
+    TestProjectionOffsets projectionOffsets = new TestProjectionOffsets();
+    PublishEventsTransactionalProjection.TransactionalSession session =
+        session(producer(), projectionOffsets);
+
+    session.continueFrom(Optional.empty());
+    assertEquals(Offset.noOffset(), session.offset);
+
+    projectionOffsets.save("carts-0", Offset.sequence(7));
+    session.continueFrom(Optional.empty());
+    assertEquals(Offset.sequence(7), session.offset);
+  }
+
+  @Test
+  public void readTheLastCommittedOffsetOfTheTag() {
+    TopicPartition partition = new TopicPartition(OFFSETS_TOPIC, 0);
+    MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+    consumer.updateEndOffsets(Collections.singletonMap(partition, 3L));
+    // the records can only be added once the partition is assigned
+    consumer.schedulePollTask(
+        () -> {
+          consumer.addRecord(offsetRecord(0, OFFSET_KEY, 4));
+          consumer.addRecord(offsetRecord(1, "PublishEventsProjection-carts-1", 8));
+          consumer.addRecord(offsetRecord(2, OFFSET_KEY, 6));
+        });
+
+    assertEquals(
+        Optional.of(6L),
+        PublishEventsTransactionalProjection.TransactionalSession.readCommittedOffset(
+            consumer, partition, OFFSET_KEY, Duration.ofSeconds(3)));
+  }
+
+  @Test
+  public void readNoOffsetFromAnEmptyOffsetsTopic() {
+    TopicPartition partition = new TopicPartition(OFFSETS_TOPIC, 0);
+    MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+    consumer.updateEndOffsets(Collections.singletonMap(partition, 0L));
+
+    assertFalse(
+        PublishEventsTransactionalProjection.TransactionalSession.readCommittedOffset(
+                consumer, partition, OFFSET_KEY, Duration.ofSeconds(3))
+            .isPresent());
+  }
+
+  @Test
+  public void spreadTheOffsetsOfTheTagsOverThePartitions() {
+    // one partition, like the offsets topic of docker-compose.yml
+    assertEquals(
+        0,
+        PublishEventsTransactionalProjection.TransactionalSession.offsetsPartition("carts-0", 1));
+    Set<Integer> partitions = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      int partition =
+          PublishEventsTransactionalProjection.TransactionalSession.offsetsPartition(
+              "carts-" + i, 4);
+      assertTrue(partition >= 0 && partition < 4);
+      partitions.add(partition);
+    }
+    assertTrue(partitions.size() > 1);
+  }
+
+  @Test
+  public void continueFromTheLastCommittedOffsetWhenRestarted() throws Exception {
+    List<ShoppingCart.Event> events =
+        Arrays.asList(
+            new ShoppingCart.ItemAdded("cart1", "socks", 1),
+            new ShoppingCart.ItemAdded("cart2", "skis", 1),
+            new ShoppingCart.ItemAdded("cart3", "boots", 1),
+            new ShoppingCart.ItemAdded("cart4", "hats", 1));
+    List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+    Supplier<PublishEventsTransactionalProjection.TransactionalSession> sessions =
+        () -> {
+          // the first session fails to commit its second transaction
+          MockProducer<String, byte[]> producer =
+              producers.isEmpty() ? failingProducer(1) : producer();
+          // instead of reading the offsets topic, continue from what the previous sessions
+          // committed
+          Optional<Long> committed = Optional.empty();
+          for (MockProducer<String, byte[]> previous : producers) {
+            for (ProducerRecord<String, byte[]> record : previous.history()) {
+              if (record.topic().equals(OFFSETS_TOPIC)) {
+                committed = Optional.of(offsetValue(record));
+              }
+            }
+          }
+          producers.add(producer);
+          PublishEventsTransactionalProjection.TransactionalSession session =
+              session(producer, new TestProjectionOffsets());
+          session.continueFrom(committed);
+          return session;
+        };
+    Function<Offset, Source<EventEnvelope, NotUsed>> eventsAfter =
+        offset -> {
+          long after = offset instanceof Sequence ? ((Sequence) offset).value() : 0L;
+          List<EventEnvelope> envelopes = new ArrayList<>();
+          for (int i = (int) after; i < events.size(); i++) {
+            envelopes.add(envelope(i + 1, events.get(i)));
+          }
+          return Source.from(envelopes);
+        };
+
+    PublishEventsTransactionalProjection.publishing(
+            RestartSettings.create(Duration.ofMillis(10), Duration.ofMillis(100), 0.0),
+            sessions,
+            eventsAfter,
+            ConfigFactory.parseString(
+                "group-after-envelopes = 2\ngroup-after-duration = 100 ms"),
+            testKit.system().executionContext())
+        .runWith(Sink.ignore(), testKit.system())
+        .toCompletableFuture()
+        .get(3, TimeUnit.SECONDS);
+
+    assertEquals(2, producers.size());
+    // the first group was committed before the failure, and isn't published again
+    assertEquals(Arrays.asList("cart1", "cart2", OFFSET_KEY), keys(producers.get(0)));
+    assertEquals(Arrays.asList("cart3", "cart4", OFFSET_KEY), keys(producers.get(1)));
+    assertEquals(4L, offsetValue(producers.get(1).history().get(2)));
+  }
+
+  private static MockProducer<String, byte[]> failingProducer(int commits) {
+    MockProducer<String, byte[]> producer =
+        new MockProducer<String, byte[]>(true, new StringSerializer(), new ByteArraySerializer()) {
+          private int committed = 0;
+
+          @Override
+          public synchronized void commitTransaction() {
+            if (committed++ == commits) throw new KafkaException("broker down");
+            super.commitTransaction();
+          }
+        };
+    producer.initTransactions();
+    return producer;
+  }
+
+  private static List<String> keys(MockProducer<String, byte[]> producer) {
+    List<String> keys = new ArrayList<>();
+    for (ProducerRecord<String, byte[]> record : producer.history()) {
+      keys.add(record.key());
+    }
+    return keys;
+  }
+
+  private static ConsumerRecord<String, byte[]> offsetRecord(
+      long position, String key, long offset) {
+    return new ConsumerRecord<>(
+        OFFSETS_TOPIC, 0, position, key, ByteBuffer.allocate(8).putLong(offset).array());
+  }
+}
@@ -0,0 +1,81 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import shopping.cart.repository.R2dbcItemPopularityRepository;
+
+// runs the queries against an in-memory H2 database, with the table of create_user_tables.sql
+public class R2dbcItemPopularityRepositoryTest {
+
+  private static final ConnectionFactory connectionFactory =
+      ConnectionFactories.get("r2dbc:h2:mem:///item-popularity;DB_CLOSE_DELAY=-1");
+
+  private static final R2dbcItemPopularityRepository repository =
+      new R2dbcItemPopularityRepository(connectionFactory);
+
+  @BeforeClass
+  public static void createTable() {
+    Mono.usingWhen(
+            Mono.<Connection>from(connectionFactory.create()),
+            connection ->
+                Flux.concat(
+                        execute(
+                            connection,
+                            "CREATE TABLE item_popularity ("
+                                + "itemid VARCHAR(255) NOT NULL, "
+                                + "version BIGINT NOT NULL, "
+                                + "count BIGINT NOT NULL, "
+                                + "PRIMARY KEY (itemid))"),
+                        execute(
+                            connection,
+                            "INSERT INTO item_popularity VALUES "
+                                + "('socks', 0, 42), ('skis', 3, 7), ('boots', 1, 0)"))
+                    .then(),
+            Connection::close)
+        .block();
+  }
+
+  private static Flux<Long> execute(Connection connection, String sql) {
+    return Flux.from(connection.createStatement(sql).execute())
+        .flatMap(result -> result.getRowsUpdated());
+  }
+
+  @Test
+  public void findTheCountOfAnItem() throws Exception {
+    assertEquals(42L, count("socks"));
+    // unknown items have a count of 0
+    assertEquals(0L, count("hats"));
+  }
+
+  private static long count(String itemId) throws Exception {
+    return repository.findCount(itemId).toCompletableFuture().get(3, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void findTheCountsOfItemsWithOneQuery() throws Exception {
+    Map<String, Long> expected = new HashMap<>();
+    expected.put("socks", 42L);
+    expected.put("skis", 7L);
+    assertEquals(
+        expected,
+        repository
+            .findCounts(Arrays.asList("socks", "skis", "hats"))
+            .toCompletableFuture()
+            .get(3, TimeUnit.SECONDS));
+    assertEquals(
+        Collections.emptyMap(),
+        repository.findCounts(Collections.emptyList()).toCompletableFuture().get());
+  }
+}
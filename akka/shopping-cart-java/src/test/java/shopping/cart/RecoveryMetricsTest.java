@@ -0,0 +1,33 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class RecoveryMetricsTest {
+
+  @ClassRule public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  @Test
+  public void shareTheMetricsOfAShardBetweenItsCarts() {
+    RecoveryMetrics recoveryMetrics = new RecoveryMetrics(testKit.system());
+    RecoveryMetrics.Shard shard = recoveryMetrics.forShard("0");
+
+    assertSame(shard, recoveryMetrics.forShard("0"));
+    assertNotSame(shard, recoveryMetrics.forShard("1"));
+  }
+
+  @Test
+  public void findTheShardOfTheCartLikeClusterSharding() {
+    RecoveryMetrics recoveryMetrics = new RecoveryMetrics(testKit.system());
+    int numberOfShards =
+        testKit.system().settings().config().getInt("akka.cluster.sharding.number-of-shards");
+    String cartId = "cart1";
+    String shardId = Integer.toString(Math.abs(cartId.hashCode() % numberOfShards));
+
+    assertSame(recoveryMetrics.forShard(shardId), recoveryMetrics.forCart(cartId));
+  }
+}
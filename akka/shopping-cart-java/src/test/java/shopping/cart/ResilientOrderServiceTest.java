@@ -0,0 +1,248 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.persistence.query.Offset;
+import akka.projection.eventsourced.EventEnvelope;
+import com.typesafe.config.ConfigFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.ClassRule;
+import org.junit.Test;
+import shopping.order.proto.OrderBatchRequest;
+import shopping.order.proto.OrderBatchResponse;
+import shopping.order.proto.OrderRequest;
+import shopping.order.proto.OrderResponse;
+import shopping.order.proto.OrderResult;
+import shopping.order.proto.ShoppingOrderService;
+
+public class ResilientOrderServiceTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "akka.actor.provider = cluster\n"
+                  + "akka.remote.artery.canonical.port = 0\n"
+                  + "shopping-order-service.resilience {\n"
+                  + "  concurrency-limit {\n"
+                  + "    initial-limit = 4\n"
+                  + "    min-limit = 1\n"
+                  + "    max-limit = 8\n"
+                  + "    latency-threshold = 3 s\n"
+                  + "    backoff-ratio = 0.75\n"
+                  + "    max-queued = 1\n"
+                  + "  }\n"
+                  + "  circuit-breaker {\n"
+                  + "    max-failures = 2\n"
+                  + "    call-timeout = 3 s\n"
+                  + "    reset-timeout = 200 ms\n"
+                  + "  }\n"
+                  + "}\n"
+                  + "shopping-cart-service.ask-timeout = 3 s\n"
+                  + "shopping-cart-service.projections.send-order {\n"
+                  + "  max-retries = 2\n"
+                  + "  retry-delay = 10 ms\n"
+                  + "}"));
+
+  // answers the calls with the current behavior, and counts the calls that reached it
+  static class TestOrderService implements ShoppingOrderService {
+    volatile Function<OrderRequest, CompletionStage<OrderResponse>> behavior;
+    int calls;
+
+    TestOrderService(Function<OrderRequest, CompletionStage<OrderResponse>> behavior) {
+      this.behavior = behavior;
+    }
+
+    @Override
+    public synchronized CompletionStage<OrderResponse> order(OrderRequest in) {
+      calls++;
+      return behavior.apply(in);
+    }
+
+    @Override
+    public synchronized CompletionStage<OrderBatchResponse> orderBatch(OrderBatchRequest in) {
+      calls++;
+      CompletionStage<OrderBatchResponse> response =
+          CompletableFuture.completedFuture(OrderBatchResponse.getDefaultInstance());
+      for (OrderRequest order : in.getOrdersList()) {
+        response =
+            response.thenCombine(
+                behavior.apply(order),
+                (batch, result) ->
+                    batch.toBuilder()
+                        .addResults(
+                            OrderResult.newBuilder()
+                                .setCartId(order.getCartId())
+                                .setOk(result.getOk()))
+                        .build());
+      }
+      return response;
+    }
+
+    synchronized int calls() {
+      return calls;
+    }
+  }
+
+  private static CompletionStage<OrderResponse> ok(OrderRequest in) {
+    return CompletableFuture.completedFuture(OrderResponse.newBuilder().setOk(true).build());
+  }
+
+  private static CompletionStage<OrderResponse> failed(OrderRequest in) {
+    return CompletableFuture.failedFuture(new RuntimeException("order service down"));
+  }
+
+  private static OrderRequest orderRequest(String cartId) {
+    return OrderRequest.newBuilder().setCartId(cartId).build();
+  }
+
+  private static Throwable failure(CompletionStage<?> result) throws Exception {
+    try {
+      result.toCompletableFuture().get(3, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    throw new AssertionError("Expected the call to fail");
+  }
+
+  @Test
+  public void failFastWhileTheOrderServiceKeepsFailing() throws Exception {
+    TestOrderService delegate = new TestOrderService(ResilientOrderServiceTest::failed);
+    ResilientOrderService orderService = new ResilientOrderService(delegate, testKit.system());
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals(
+          "order service down", failure(orderService.order(orderRequest("cart1"))).getMessage());
+    }
+    // the circuit breaker is open, the calls don't reach the order service
+    for (int i = 0; i < 3; i++) {
+      assertTrue(
+          failure(orderService.order(orderRequest("cart1")))
+              instanceof CircuitBreakerOpenException);
+    }
+    assertEquals(2, delegate.calls());
+  }
+
+  @Test
+  public void closeTheCircuitBreakerWhenATrialCallSucceeds() throws Exception {
+    TestOrderService delegate = new TestOrderService(ResilientOrderServiceTest::failed);
+    ResilientOrderService orderService = new ResilientOrderService(delegate, testKit.system());
+    for (int i = 0; i < 2; i++) {
+      failure(orderService.order(orderRequest("cart1")));
+    }
+    delegate.behavior = ResilientOrderServiceTest::ok;
+
+    // after the reset-timeout one trial call is let through
+    Thread.sleep(400);
+    assertTrue(orderService.order(orderRequest("cart1")).toCompletableFuture().get().getOk());
+    assertTrue(orderService.order(orderRequest("cart2")).toCompletableFuture().get().getOk());
+    assertEquals(4, delegate.calls());
+  }
+
+  @Test
+  public void queueTheCallsAboveTheConcurrencyLimitAndRejectTheRest() throws Exception {
+    List<CompletableFuture<OrderResponse>> pending = new ArrayList<>();
+    TestOrderService delegate =
+        new TestOrderService(
+            in -> {
+              CompletableFuture<OrderResponse> response = new CompletableFuture<>();
+              pending.add(response);
+              return response;
+            });
+    ResilientOrderService orderService = new ResilientOrderService(delegate, testKit.system());
+
+    List<CompletionStage<OrderResponse>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      results.add(orderService.order(orderRequest("cart" + i)));
+    }
+    // four calls within the initial limit, the fifth waits in the queue
+    assertEquals(4, delegate.calls());
+    assertTrue(
+        failure(orderService.order(orderRequest("cart5"))) instanceof RejectedExecutionException);
+
+    pending.get(0).complete(OrderResponse.newBuilder().setOk(true).build());
+    assertTrue(results.get(0).toCompletableFuture().get().getOk());
+    assertEquals(5, delegate.calls());
+    assertFalse(results.get(4).toCompletableFuture().isDone());
+    pending.get(4).complete(OrderResponse.newBuilder().setOk(true).build());
+    assertTrue(results.get(4).toCompletableFuture().get().getOk());
+  }
+
+  @Test
+  public void keepTheConcurrencyLimitWhileTheCircuitBreakerIsOpen() throws Exception {
+    TestOrderService delegate = new TestOrderService(ResilientOrderServiceTest::failed);
+    ResilientOrderService orderService = new ResilientOrderService(delegate, testKit.system());
+    // each failure lowers the limit, 4 * 0.75 * 0.75, then the breaker opens
+    for (int i = 0; i < 2; i++) {
+      failure(orderService.order(orderRequest("cart1")));
+    }
+    assertEquals(2, orderService.concurrencyLimit());
+
+    // the calls that the open breaker fails say nothing about the order service
+    for (int i = 0; i < 5; i++) {
+      assertTrue(
+          failure(orderService.order(orderRequest("cart1")))
+              instanceof CircuitBreakerOpenException);
+    }
+    assertEquals(2, orderService.concurrencyLimit());
+  }
+
+  @Test
+  public void stopRetryingTheOrdersWhileTheCircuitBreakerIsOpen() throws Exception {
+    TestOrderService delegate = new TestOrderService(ResilientOrderServiceTest::failed);
+    SendOrderProjectionGroupedHandler handler =
+        new SendOrderProjectionGroupedHandler(
+            testKit.system(), new ResilientOrderService(delegate, testKit.system()));
+
+    try {
+      handler
+          .process(Collections.singletonList(checkedOut("cart1")))
+          .toCompletableFuture()
+          .get(3, TimeUnit.SECONDS);
+      fail("Expected the orders to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    // the second retry is failed by the open breaker without calling the order service
+    assertEquals(2, delegate.calls());
+  }
+
+  @Test
+  public void retryTheOrdersThroughTheCircuitBreaker() throws Exception {
+    AtomicInteger failures = new AtomicInteger(1);
+    TestOrderService delegate =
+        new TestOrderService(in -> failures.getAndDecrement() > 0 ? failed(in) : ok(in));
+    SendOrderProjectionGroupedHandler handler =
+        new SendOrderProjectionGroupedHandler(
+            testKit.system(), new ResilientOrderService(delegate, testKit.system()));
+
+    handler
+        .process(Collections.singletonList(checkedOut("cart1")))
+        .toCompletableFuture()
+        .get(3, TimeUnit.SECONDS);
+    // one failure doesn't open the circuit breaker, so the retry reaches the order service
+    assertEquals(2, delegate.calls());
+  }
+
+  private static EventEnvelope<ShoppingCart.Event> checkedOut(String cartId) {
+    ShoppingCart.CheckedOut event =
+        new ShoppingCart.CheckedOut(
+            cartId, Instant.parse("2020-01-01T12:00:00.00Z"), ItemQuantities.EMPTY.updated("a", 1));
+    return new EventEnvelope<>(Offset.sequence(1L), "persistenceId", 1L, event, 0L);
+  }
+}
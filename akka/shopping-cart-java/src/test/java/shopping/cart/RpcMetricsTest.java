@@ -0,0 +1,81 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.grpc.GrpcServiceException;
+import com.typesafe.config.ConfigFactory;
+import io.grpc.Status;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class RpcMetricsTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "shopping-cart-service.rpc-metrics {\n"
+                  + "  highest-trackable-latency = 60 s\n"
+                  + "  significant-digits = 3\n"
+                  + "  quantiles = [0.5, 0.99]\n"
+                  + "}"));
+
+  @Test
+  public void classifyTheOutcomes() {
+    assertEquals(RpcMetrics.Outcome.SUCCESS, RpcMetrics.outcome(null));
+    assertEquals(
+        RpcMetrics.Outcome.UNAVAILABLE,
+        RpcMetrics.outcome(new CompletionException(new TimeoutException())));
+    assertEquals(
+        RpcMetrics.Outcome.NOT_FOUND,
+        RpcMetrics.outcome(new GrpcServiceException(Status.NOT_FOUND)));
+    assertEquals(
+        RpcMetrics.Outcome.INVALID_ARGUMENT,
+        RpcMetrics.outcome(
+            new CompletionException(new GrpcServiceException(Status.INVALID_ARGUMENT))));
+    assertEquals(RpcMetrics.Outcome.OTHER, RpcMetrics.outcome(new IllegalStateException()));
+  }
+
+  @Test
+  public void scrapeTheLatenciesPerMethodAndOutcome() {
+    RpcMetrics metrics = RpcMetrics.get(testKit.system());
+    long now = System.nanoTime();
+    metrics.record(RpcMetrics.Method.CHECKOUT, now - 2_000_000L, null);
+    metrics.record(RpcMetrics.Method.CHECKOUT, now - 4_000_000L, null);
+    metrics.record(RpcMetrics.Method.GET_CART, now, new GrpcServiceException(Status.NOT_FOUND));
+
+    String scraped = metrics.scrape();
+    assertTrue(scraped.contains("# TYPE shopping_cart_rpc_latency_seconds summary\n"));
+    assertTrue(scraped.contains(count("checkout", "success", 2)));
+    assertTrue(scraped.contains(count("getCart", "NOT_FOUND", 1)));
+    assertTrue(
+        scraped.contains(
+            "shopping_cart_rpc_latency_seconds{method=\"checkout\",outcome=\"success\","
+                + "quantile=\"0.99\"} 0.004"));
+    // the methods and outcomes that were never recorded are left out
+    assertFalse(scraped.contains("method=\"addItem\""));
+
+    // the quantiles are of the calls since the previous scrape, the counts are of all calls
+    String again = metrics.scrape();
+    assertTrue(
+        again.contains(
+            "shopping_cart_rpc_latency_seconds{method=\"checkout\",outcome=\"success\","
+                + "quantile=\"0.5\"} NaN\n"));
+    assertTrue(again.contains(count("checkout", "success", 2)));
+  }
+
+  private static String count(String method, String outcome, long count) {
+    return "shopping_cart_rpc_latency_seconds_count{method=\""
+        + method
+        + "\",outcome=\""
+        + outcome
+        + "\"} "
+        + count
+        + "\n";
+  }
+}
@@ -0,0 +1,129 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.persistence.query.Offset;
+import akka.projection.eventsourced.EventEnvelope;
+import com.typesafe.config.ConfigFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.ClassRule;
+import org.junit.Test;
+import shopping.order.proto.OrderBatchRequest;
+import shopping.order.proto.OrderBatchResponse;
+import shopping.order.proto.OrderRequest;
+import shopping.order.proto.OrderResponse;
+import shopping.order.proto.OrderResult;
+import shopping.order.proto.ShoppingOrderService;
+
+public class SendOrderProjectionGroupedHandlerTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "akka.actor.provider = cluster\n"
+                  + "akka.remote.artery.canonical.port = 0\n"
+                  + "shopping-cart-service.ask-timeout = 3 s\n"
+                  + "shopping-cart-service.projections.send-order {\n"
+                  + "  max-retries = 2\n"
+                  + "  retry-delay = 10 ms\n"
+                  + "}"));
+
+  // rejects the orders of the given carts the given number of times
+  static class TestOrderService implements ShoppingOrderService {
+    private final Set<String> rejectedCarts;
+    private int rejections;
+    final List<List<String>> batches = new ArrayList<>();
+
+    TestOrderService(int rejections, String... rejectedCarts) {
+      this.rejections = rejections;
+      this.rejectedCarts = new HashSet<>(Arrays.asList(rejectedCarts));
+    }
+
+    @Override
+    public CompletionStage<OrderResponse> order(OrderRequest in) {
+      throw new UnsupportedOperationException("only batches are expected");
+    }
+
+    @Override
+    public synchronized CompletionStage<OrderBatchResponse> orderBatch(OrderBatchRequest in) {
+      List<String> cartIds = new ArrayList<>();
+      OrderBatchResponse.Builder response = OrderBatchResponse.newBuilder();
+      boolean reject = rejections > 0;
+      for (OrderRequest order : in.getOrdersList()) {
+        cartIds.add(order.getCartId());
+        boolean ok = !(reject && rejectedCarts.contains(order.getCartId()));
+        response.addResults(OrderResult.newBuilder().setCartId(order.getCartId()).setOk(ok));
+      }
+      if (reject) rejections--;
+      batches.add(cartIds);
+      return CompletableFuture.completedFuture(response.build());
+    }
+  }
+
+  private EventEnvelope<ShoppingCart.Event> createEnvelope(ShoppingCart.Event event, long seqNo) {
+    return new EventEnvelope<>(Offset.sequence(seqNo), "persistenceId", seqNo, event, 0L);
+  }
+
+  private ShoppingCart.CheckedOut checkedOut(String cartId) {
+    return new ShoppingCart.CheckedOut(
+        cartId, Instant.parse("2020-01-01T12:00:00.00Z"), ItemQuantities.EMPTY.updated("skis", 1));
+  }
+
+  private final List<EventEnvelope<ShoppingCart.Event>> envelopes =
+      Arrays.asList(
+          createEnvelope(new ShoppingCart.ItemAdded("a", "skis", 1), 0L),
+          createEnvelope(checkedOut("a"), 1L),
+          createEnvelope(checkedOut("b"), 2L),
+          createEnvelope(checkedOut("c"), 3L));
+
+  @Test
+  public void sendCheckoutsInOneBatch() throws Exception {
+    TestOrderService orderService = new TestOrderService(0);
+    SendOrderProjectionGroupedHandler handler =
+        new SendOrderProjectionGroupedHandler(testKit.system(), orderService);
+
+    handler.process(envelopes).toCompletableFuture().get(3, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), orderService.batches);
+  }
+
+  @Test
+  public void retryOnlyRejectedOrders() throws Exception {
+    TestOrderService orderService = new TestOrderService(2, "b");
+    SendOrderProjectionGroupedHandler handler =
+        new SendOrderProjectionGroupedHandler(testKit.system(), orderService);
+
+    handler.process(envelopes).toCompletableFuture().get(3, TimeUnit.SECONDS);
+    assertEquals(
+        Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("b"), Arrays.asList("b")),
+        orderService.batches);
+  }
+
+  @Test
+  public void failWhenOrdersAreStillRejectedAfterTheRetries() throws Exception {
+    TestOrderService orderService = new TestOrderService(3, "b", "c");
+    SendOrderProjectionGroupedHandler handler =
+        new SendOrderProjectionGroupedHandler(testKit.system(), orderService);
+
+    try {
+      handler.process(envelopes).toCompletableFuture().get(3, TimeUnit.SECONDS);
+      fail("expected the group to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(3, orderService.batches.size());
+    assertEquals(Arrays.asList("b", "c"), orderService.batches.get(2));
+  }
+}
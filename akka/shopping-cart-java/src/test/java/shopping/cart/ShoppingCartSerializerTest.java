@@ -0,0 +1,144 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import com.google.protobuf.Any;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigResolveOptions;
+import com.typesafe.config.ConfigUtil;
+import java.time.Instant;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class ShoppingCartSerializerTest {
+
+  // the second step of the rollout, when all nodes read protobuf
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+                  "shopping-cart-service.serialization.write-with = shopping-cart")
+              .withFallback(ConfigFactory.parseResources("serialization.conf"))
+              .resolve());
+
+  private static final Serialization serialization =
+      SerializationExtension.get(Adapter.toClassic(testKit.system()));
+
+  // the id of the jackson-cbor serializer that events and snapshots were stored with before
+  private static final int JACKSON_CBOR_ID = 33;
+
+  private static Object roundTrip(Object o, Serializer serializer) {
+    byte[] bytes = serializer.toBinary(o);
+    return serialization
+        .deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, o))
+        .get();
+  }
+
+  private static final ShoppingCart.Event[] EVENTS = {
+    new ShoppingCart.ItemAdded("cart1", "socks", 3),
+    new ShoppingCart.ItemRemoved("cart1", "socks", 3),
+    new ShoppingCart.ItemQuantityAdjusted("cart1", "socks", 3, 5),
+    new ShoppingCart.CheckedOut(
+        "cart1",
+        Instant.parse("2020-01-01T12:00:00.123456789Z"),
+        ItemQuantities.EMPTY.updated("socks", 3).updated("skis", 1)),
+    // stored before the items were included
+    new ShoppingCart.CheckedOut(
+        "cart1", Instant.parse("2020-01-01T12:00:00.123456789Z"), ItemQuantities.EMPTY)
+  };
+
+  @Test
+  public void writeWithJacksonUntilProtobufIsEnabled() {
+    Config defaults =
+        ConfigFactory.parseResources("serialization.conf")
+            .resolve(ConfigResolveOptions.defaults().setUseSystemEnvironment(false));
+    for (String boundClass :
+        new String[] {"shopping.cart.ShoppingCart$Event", "shopping.cart.ShoppingCart$State"}) {
+      assertEquals(
+          "jackson-cbor",
+          defaults.getString(
+              ConfigUtil.joinPath("akka", "actor", "serialization-bindings", boundClass)));
+    }
+  }
+
+  @Test
+  public void serializeEventsAsProtobuf() {
+    for (ShoppingCart.Event event : EVENTS) {
+      Serializer serializer = serialization.findSerializerFor(event);
+      assertTrue(serializer instanceof ShoppingCartSerializer);
+      assertEquals(event, roundTrip(event, serializer));
+    }
+  }
+
+  @Test
+  public void serializeUnpublishedEventsAsProtobuf() {
+    ShoppingCart.Event[] events = {
+      new ShoppingCart.CartRetired("cart1", Instant.parse("2020-01-01T12:00:00.123456789Z"))
+    };
+    for (ShoppingCart.Event event : events) {
+      Serializer serializer = serialization.findSerializerFor(event);
+      assertTrue(serializer instanceof ShoppingCartSerializer);
+      assertEquals(event, roundTrip(event, serializer));
+    }
+  }
+
+  @Test
+  public void serializeStateAsProtobuf() {
+    ShoppingCart.State state =
+        new ShoppingCart.State()
+            .updateItem("socks", 3)
+            .updateItem("skis", 1)
+            .checkout(Instant.parse("2020-01-01T12:00:00Z"));
+    Serializer serializer = serialization.findSerializerFor(state);
+    assertTrue(serializer instanceof ShoppingCartSerializer);
+
+    ShoppingCart.State deserialized = (ShoppingCart.State) roundTrip(state, serializer);
+    assertEquals("socks", deserialized.items().itemIdAt(0));
+    assertEquals(state.items(), deserialized.items());
+    assertEquals(state.checkoutDate(), deserialized.checkoutDate());
+  }
+
+  @Test
+  public void readEventsThatWereStoredWithJackson() {
+    Serializer jackson = serialization.serializerByIdentity().get(JACKSON_CBOR_ID).get();
+    Serializer protobuf = serialization.findSerializerFor(EVENTS[0]);
+    for (ShoppingCart.Event event : EVENTS) {
+      assertEquals(event, roundTrip(event, jackson));
+      assertTrue(protobuf.toBinary(event).length < jackson.toBinary(event).length);
+    }
+  }
+
+  @Test
+  public void publishOnlyThePublicFieldsOfTheEventsReadFromTheJournal() throws Exception {
+    ShoppingCart.Event event = EVENTS[3];
+    Serializer serializer = serialization.findSerializerFor(event);
+    ShoppingCart.Event read = (ShoppingCart.Event) roundTrip(event, serializer);
+
+    Any published = Any.parseFrom(PublishEventsProjectionHandler.serialize(read));
+    assertEquals("shopping-cart-service/shoppingcart.CheckedOut", published.getTypeUrl());
+    shopping.cart.proto.CheckedOut message =
+        shopping.cart.proto.CheckedOut.parseFrom(published.getValue());
+    assertEquals("cart1", message.getCartId());
+    // the event time and the items are only stored in the journal
+    assertTrue(message.getUnknownFields().asMap().isEmpty());
+  }
+
+  @Test
+  public void publishEventsAsAny() throws Exception {
+    Any published = Any.parseFrom(PublishEventsProjectionHandler.serialize(EVENTS[2]));
+    assertEquals("shopping-cart-service/shoppingcart.ItemQuantityAdjusted", published.getTypeUrl());
+    shopping.cart.proto.ItemQuantityAdjusted message =
+        shopping.cart.proto.ItemQuantityAdjusted.parseFrom(published.getValue());
+    assertEquals("cart1", message.getCartId());
+    assertEquals("socks", message.getItemId());
+    assertEquals(5, message.getQuantity());
+  }
+}
@@ -3,10 +3,18 @@ package shopping.cart;
 import static akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit.CommandResultWithReply;
 import static org.junit.Assert.*;
 
+import akka.Done;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.pattern.StatusReply;
 import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import akka.persistence.testkit.javadsl.PersistenceTestKit;
+import akka.persistence.typed.PersistenceId;
 import com.typesafe.config.ConfigFactory;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -21,13 +29,34 @@ public class ShoppingCartTest {
           ConfigFactory.parseString(
                   "akka.actor.serialization-bindings {\n"
                       + "  \"shopping.cart.CborSerializable\" = jackson-cbor\n"
-                      + "}")
-              .withFallback(EventSourcedBehaviorTestKit.config()));
+                      + "}\n"
+                      // the snapshot of a retired cart is then the only one
+                      + "shopping-cart-service.snapshots.on-checkout = off")
+              .withFallback(EventSourcedBehaviorTestKit.config())
+              // the settings of the cart, without the rest of application.conf
+              .withFallback(
+                  ConfigFactory.load()
+                      .getConfig("shopping-cart-service")
+                      .atPath("shopping-cart-service")));
+
+  // shared by the carts of all tests, like by the carts of a node
+  private static final SnapshotPolicy snapshotPolicy = new SnapshotPolicy(testKit.system());
+  private static final RecoveryMetrics recoveryMetrics = new RecoveryMetrics(testKit.system());
 
   private EventSourcedBehaviorTestKit<ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State>
       eventSourcedTestKit =
           EventSourcedBehaviorTestKit.create(
-              testKit.system(), ShoppingCart.create(CART_ID, "carts-0"));
+              testKit.system(),
+              ShoppingCart.create(CART_ID, "carts-0", snapshotPolicy, recoveryMetrics));
+
+  // the cart as it's retired by the CartRetirement, with the events of the cart of the test
+  private static EventSourcedBehaviorTestKit<
+          ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State>
+      retiringTestKit() {
+    return EventSourcedBehaviorTestKit.create(
+        testKit.system(),
+        ShoppingCart.retiring(CART_ID, "carts-0", snapshotPolicy, recoveryMetrics));
+  }
 
   @Before
   public void beforeEach() {
@@ -72,6 +101,56 @@ public class ShoppingCartTest {
     assertTrue(result2.hasNoEvents());
   }
 
+  @Test
+  public void addSeveralItemsWithOneWrite() {
+    Map<String, Integer> items = new LinkedHashMap<>();
+    items.put("foo", 42);
+    items.put("bar", 1);
+    CommandResultWithReply<
+            ShoppingCart.Command,
+            ShoppingCart.Event,
+            ShoppingCart.State,
+            StatusReply<ShoppingCart.Summary>>
+        result =
+            eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItems(items, replyTo));
+    assertTrue(result.reply().isSuccess());
+    ShoppingCart.Summary summary = result.reply().getValue();
+    assertEquals(2, summary.items.size());
+    assertEquals(42, summary.items.get("foo").intValue());
+    assertEquals(1, summary.items.get("bar").intValue());
+    assertEquals(
+        Arrays.asList(
+            new ShoppingCart.ItemAdded(CART_ID, "foo", 42),
+            new ShoppingCart.ItemAdded(CART_ID, "bar", 1)),
+        result.events());
+  }
+
+  @Test
+  public void rejectAllItemsIfOneIsInvalid() {
+    CommandResultWithReply<
+            ShoppingCart.Command,
+            ShoppingCart.Event,
+            ShoppingCart.State,
+            StatusReply<ShoppingCart.Summary>>
+        result1 =
+            eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItem("foo", 42, replyTo));
+    assertTrue(result1.reply().isSuccess());
+
+    Map<String, Integer> items = new LinkedHashMap<>();
+    items.put("bar", 1);
+    items.put("foo", 2);
+    CommandResultWithReply<
+            ShoppingCart.Command,
+            ShoppingCart.Event,
+            ShoppingCart.State,
+            StatusReply<ShoppingCart.Summary>>
+        result2 =
+            eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItems(items, replyTo));
+    assertTrue(result2.reply().isError());
+    assertTrue(result2.hasNoEvents());
+    assertFalse(result2.state().hasItem("bar"));
+  }
+
   @Test
   public void removeItem() {
     CommandResultWithReply<
@@ -136,6 +215,7 @@ public class ShoppingCartTest {
     assertTrue(result2.reply().isSuccess());
     assertTrue(result2.event() instanceof ShoppingCart.CheckedOut);
     assertEquals(CART_ID, result2.event().cartId);
+    assertEquals(42, ((ShoppingCart.CheckedOut) result2.event()).items.quantity("foo"));
 
     CommandResultWithReply<
             ShoppingCart.Command,
@@ -189,4 +269,68 @@ public class ShoppingCartTest {
     assertEquals(1, result2.reply().items.size());
     assertEquals(42, result2.reply().items.get("foo").intValue());
   }
+
+  @Test
+  public void retireACheckedOutCart() {
+    eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItem("foo", 42, replyTo));
+    CommandResultWithReply<
+            ShoppingCart.Command,
+            ShoppingCart.Event,
+            ShoppingCart.State,
+            StatusReply<ShoppingCart.Summary>>
+        checkout = eventSourcedTestKit.runCommand(ShoppingCart.Checkout::new);
+    assertTrue(checkout.reply().isSuccess());
+
+    CommandResultWithReply<
+            ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State, StatusReply<Done>>
+        result = retiringTestKit().runCommand(ShoppingCart.Retire::new);
+    // replied to when the events before the CartRetired event are deleted
+    assertTrue(result.reply().isSuccess());
+    ShoppingCart.CartRetired retired =
+        new ShoppingCart.CartRetired(CART_ID, result.state().checkoutDate().get());
+    assertEquals(retired, result.event());
+    assertEquals(
+        Collections.singletonList(retired),
+        PersistenceTestKit.create(testKit.system())
+            .persistedInStorage(PersistenceId.of("ShoppingCart", CART_ID).id()));
+
+    eventSourcedTestKit.restart();
+    CommandResultWithReply<
+            ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State, ShoppingCart.Summary>
+        get = eventSourcedTestKit.runCommand(ShoppingCart.Get::new);
+    assertTrue(get.reply().checkedOut);
+    assertEquals(42, get.reply().items.get("foo").intValue());
+  }
+
+  @Test
+  public void rejectRetiringAnOpenCart() {
+    eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItem("foo", 42, replyTo));
+    CommandResultWithReply<
+            ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State, StatusReply<Done>>
+        result = retiringTestKit().runCommand(ShoppingCart.Retire::new);
+    assertTrue(result.reply().isError());
+    assertTrue(result.hasNoEvents());
+  }
+
+  @Test
+  public void onlyRetireWithTheRetiringCart() {
+    eventSourcedTestKit.runCommand(replyTo -> new ShoppingCart.AddItem("foo", 42, replyTo));
+    eventSourcedTestKit.runCommand(ShoppingCart.Checkout::new);
+    CommandResultWithReply<
+            ShoppingCart.Command, ShoppingCart.Event, ShoppingCart.State, StatusReply<Done>>
+        result = eventSourcedTestKit.runCommand(ShoppingCart.Retire::new);
+    assertTrue(result.reply().isError());
+    assertTrue(result.hasNoEvents());
+  }
+
+  @Test
+  public void keepTheSnapshotOfTheStateWhenTheStateChanges() {
+    ShoppingCart.State state = new ShoppingCart.State().updateItem("foo", 1);
+    ShoppingCart.State snapshot = state.snapshot();
+
+    state.updateItem("foo", 2).updateItem("bar", 3).checkout(Instant.now());
+    assertEquals(1, snapshot.itemCount("foo"));
+    assertFalse(snapshot.hasItem("bar"));
+    assertFalse(snapshot.isCheckedOut());
+  }
 }
@@ -0,0 +1,73 @@
+package shopping.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import com.typesafe.config.ConfigFactory;
+import java.time.Instant;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class SnapshotPolicyTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit =
+      new TestKitJunitResource(
+          ConfigFactory.parseString(
+              "shopping-cart-service.snapshots {\n"
+                  + "  min-events = 5\n"
+                  + "  max-replay-time = 10 ms\n"
+                  + "  max-events-per-item = 4\n"
+                  + "  replay-time-smoothing = 0.5\n"
+                  + "  initial-replay-time-per-event = 1 ms\n"
+                  + "}")
+              // the other settings of the cart, without the rest of application.conf
+              .withFallback(
+                  ConfigFactory.load()
+                      .getConfig("shopping-cart-service")
+                      .atPath("shopping-cart-service")));
+
+  private static final ShoppingCart.Event ITEM_ADDED = new ShoppingCart.ItemAdded("a", "skis", 1);
+
+  @Test
+  public void snapshotWhenTheReplayWouldTakeTooLong() {
+    SnapshotPolicy policy = new SnapshotPolicy(testKit.system());
+    // 9 events of 1 ms, in a cart with enough items to not be churning
+    assertFalse(policy.shouldSnapshot(ITEM_ADDED, 9, 10));
+    assertTrue(policy.shouldSnapshot(ITEM_ADDED, 10, 10));
+  }
+
+  @Test
+  public void snapshotWhenThereAreManyMoreEventsThanItems() {
+    SnapshotPolicy policy = new SnapshotPolicy(testKit.system());
+    assertFalse(policy.shouldSnapshot(ITEM_ADDED, 7, 2));
+    assertTrue(policy.shouldSnapshot(ITEM_ADDED, 8, 2));
+    // but not for fewer than min-events
+    assertFalse(policy.shouldSnapshot(ITEM_ADDED, 4, 0));
+  }
+
+  @Test
+  public void snapshotOnCheckout() {
+    SnapshotPolicy policy = new SnapshotPolicy(testKit.system());
+    ShoppingCart.Event checkedOut =
+        new ShoppingCart.CheckedOut("a", Instant.now(), ItemQuantities.EMPTY);
+    assertTrue(policy.shouldSnapshot(checkedOut, 1, 1));
+  }
+
+  @Test
+  public void estimateTheReplayTimeFromTheRecoveries() {
+    SnapshotPolicy policy = new SnapshotPolicy(testKit.system());
+    // 27 ms from the first of 10 replayed events, 3 ms for each of the other 9, averaged with the
+    // initial 1 ms
+    policy.recovered(27_000_000L, 10);
+    assertEquals(2_000_000.0, policy.replayNanosPerEvent(), 1.0);
+    // the time of a single event is the round trip of the query, which says nothing about the
+    // replay
+    policy.recovered(5_000_000L, 1);
+    assertEquals(2_000_000.0, policy.replayNanosPerEvent(), 1.0);
+    // now 5 events take 10 ms
+    assertTrue(policy.shouldSnapshot(ITEM_ADDED, 5, 10));
+  }
+}
@@ -32,8 +32,11 @@ import org.scalatest.time.Span
 import org.scalatest.wordspec.AnyWordSpec
 import org.slf4j.LoggerFactory
 import shopping.cart.repository.ScalikeJdbcSetup
+import shopping.order.proto.OrderBatchRequest
+import shopping.order.proto.OrderBatchResponse
 import shopping.order.proto.OrderRequest
 import shopping.order.proto.OrderResponse
+import shopping.order.proto.OrderResult
 import shopping.order.proto.ShoppingOrderService
 
 object IntegrationSpec {
@@ -131,6 +134,13 @@ class IntegrationSpec
         orderServiceProbe.ref ! in
         Future.successful(OrderResponse(ok = true))
       }
+
+      override def orderBatch(
+          in: OrderBatchRequest): Future[OrderBatchResponse] = {
+        in.orders.foreach(orderServiceProbe.ref ! _)
+        Future.successful(OrderBatchResponse(in.orders.map(order =>
+          OrderResult(order.cartId, ok = true))))
+      }
     }
 
   override protected def beforeAll(): Unit = {